@@ -4,7 +4,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.PriorityQueue;
 
 /**
  * Baseline algorithm inspired by Bazelmans et al. (2025) that builds a
@@ -17,16 +16,6 @@ public class BazelmansBaselineSolver {
 
         private static final double LOADING_WEIGHT = 0.1;
 
-        private static class LegResult {
-                final double distance;
-                final double arrivalTime;
-
-                LegResult(double distance, double arrivalTime) {
-                        this.distance = distance;
-                        this.arrivalTime = arrivalTime;
-                }
-        }
-
         private static class RouteEvaluation {
                 final List<Point> route;
                 final double distance;
@@ -48,13 +37,26 @@ public class BazelmansBaselineSolver {
         }
 
         private final Query query;
+        private LegProfileCache legProfiles;
+        private LegObjective legObjective = LegObjective.SHORTEST;
+        private DepotReturnProfile depotReturn;
 
         public BazelmansBaselineSolver(Query query) {
                 this.query = query;
+                this.legProfiles = new LegProfileCache(query);
+        }
+
+        /**
+         * Select how individual legs are routed; defaults to {@link LegObjective#SHORTEST}.
+         */
+        public void setLegObjective(LegObjective objective) {
+                this.legProfiles = new LegProfileCache(query, objective);
+                this.legObjective = objective;
         }
 
         public List<RoutePlan> solve() {
                 System.out.println("Starting Bazelmans baseline solver for query " + query.getID());
+                depotReturn = new DepotReturnProfile(query, legObjective);
                 List<Point> currentRoute = new ArrayList<Point>();
                 currentRoute.add(query.getDepot());
                 currentRoute.add(query.getDepot());
@@ -143,8 +145,11 @@ public class BazelmansBaselineSolver {
                                 Point point = sequence.get(i);
                                 if (i > 0) {
                                         Point previous = sequence.get(i - 1);
-                                        LegResult leg = shortestLeg(previous.getNode().getNodeID(), point.getNode().getNodeID(),
-                                                        currentTime);
+                                        boolean returnLeg = i == sequence.size() - 1 && point == query.getDepot();
+                                        LegResult leg = returnLeg
+                                                        ? depotReturn.leg(previous.getNode().getNodeID(), currentTime)
+                                                        : legProfiles.leg(previous.getNode().getNodeID(), point.getNode().getNodeID(),
+                                                                        currentTime);
                                         if (leg == null) {
                                                 return new RouteEvaluation(sequence, Double.POSITIVE_INFINITY, luCost,
                                                                 processedRequests, false);
@@ -159,6 +164,11 @@ public class BazelmansBaselineSolver {
                                         return new RouteEvaluation(sequence, Double.POSITIVE_INFINITY, luCost, processedRequests,
                                                         false);
                                 }
+                                if (currentTime > depotReturn.latestDeparture(point.getNode().getNodeID())) {
+                                        // too late to get back to the depot, whatever follows
+                                        return new RouteEvaluation(sequence, Double.POSITIVE_INFINITY, luCost, processedRequests,
+                                                        false);
+                                }
 
                                 if (point.getType().equals("Source")) {
                                         int quantity = point.getServiceObject().getServiceQuantity();
@@ -235,55 +245,4 @@ public class BazelmansBaselineSolver {
 
                 return true;
         }
-
-        private LegResult shortestLeg(int src, int dest, double departureTime) {
-                Map<Integer, Double> gCost = new HashMap<Integer, Double>();
-                Map<Integer, Double> arrivalTime = new HashMap<Integer, Double>();
-                Map<Integer, Double> fScore = new HashMap<Integer, Double>();
-
-                PriorityQueue<Integer> queue = new PriorityQueue<Integer>(1, new Comparator<Integer>() {
-                        @Override
-                        public int compare(Integer i, Integer j) {
-                                if (fScore.get(i) > fScore.get(j)) {
-                                        return 1;
-                                } else if (fScore.get(i) < fScore.get(j)) {
-                                        return -1;
-                                } else {
-                                        return 0;
-                                }
-                        }
-                });
-
-                gCost.put(src, 0.0);
-                arrivalTime.put(src, departureTime);
-                fScore.put(src, Graph.get_node(src).euclidean_distance(Graph.get_node(dest)));
-                queue.add(src);
-
-                while (!queue.isEmpty()) {
-                        int current = queue.poll();
-                        if (current == dest) {
-                                return new LegResult(gCost.get(dest), arrivalTime.get(dest));
-                        }
-
-                        Node node = Graph.get_node(current);
-                        for (Entry<Integer, Edge> edgeEntry : node.get_outgoing_edges().entrySet()) {
-                                Edge edge = edgeEntry.getValue();
-                                int child = edge.get_destination();
-
-                                double tentativeArrival = edge.get_arrival_time(arrivalTime.get(current));
-                                double tentativeDistance = gCost.get(current) + edge.getDistance();
-
-                                if (!gCost.containsKey(child) || tentativeDistance < gCost.get(child)) {
-                                        gCost.put(child, tentativeDistance);
-                                        arrivalTime.put(child, tentativeArrival);
-                                        fScore.put(child,
-                                                        tentativeDistance + Graph.get_node(child)
-                                                                        .euclidean_distance(Graph.get_node(dest)));
-                                        queue.add(child);
-                                }
-                        }
-                }
-
-                return null;
-        }
 }
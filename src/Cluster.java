@@ -1,11 +1,14 @@
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 class Cluster {
 
@@ -20,145 +23,183 @@ class Cluster {
         private int available_capacity;
         private int min_overlap;
         private boolean luPruningEnabled = false;
-        private int bestLuCost;
+        private boolean parallelEnumerationEnabled = false;
+        private final AtomicInteger bestLuCost = new AtomicInteger(Integer.MAX_VALUE);
+
+        private static final byte KIND_SOURCE = 0;
+        private static final byte KIND_DESTINATION = 1;
+        private static final byte KIND_OTHER = 2;
+
+        /**
+         * Largest cluster whose orderings are all enumerated. Larger clusters keep, for
+         * every possible last point, only the ordering of least LU cost.
+         */
+        static final int MAX_PERMUTED_POINTS = 7;
+
+        /**
+         * Largest cluster the subset dynamic program accepts; its tables grow with
+         * 2^n * n entries.
+         */
+        static final int MAX_SUBSET_POINTS = 16;
+
+        /**
+         * Fewest orderings a permutation search must be able to reach for parallel
+         * enumeration to split it into fork-join tasks; smaller trees are cheaper to
+         * walk on one thread.
+         */
+        static final int MIN_FORKED_ORDERINGS = 1000;
+
+        private static final int SUBTREES_PER_THREAD = 4;
+
+        /**
+         * Fewest steps of the subset dynamic program worth one task on the ordering
+         * evaluation pool; a set of k points takes about k^2 steps. A layer is split
+         * into at most one chunk per thread of at least this many steps, so clusters
+         * of 8 points and more split their widest layers.
+         */
+        static final int MIN_PARALLEL_LAYER_STEPS = 512;
 
         /**
          * Lightweight stack state used to maintain the unavoidable LU lower bound while
          * enumerating orderings. This mirrors the stack-depth bound described in the
          * pruning guidelines: pickups push onto the open stack, deliveries pop from it
          * and add the number of items above the delivered request to the lower bound.
+         * Requests are identified by small slots, and every operation can be undone so
+         * a single instance serves the whole enumeration.
          */
         private static class StackState {
-                private List<Integer> stack = new ArrayList<Integer>();
-                private Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+                private final int[] stack;
+                private final int[] positions;
+                private int size = 0;
                 private int lowerBound = 0;
 
-                StackState copy() {
-                        StackState copy = new StackState();
-                        copy.stack = new ArrayList<Integer>(this.stack);
-                        copy.positions = new HashMap<Integer, Integer>(this.positions);
-                        copy.lowerBound = this.lowerBound;
-                        return copy;
+                StackState(int slots) {
+                        this.stack = new int[slots];
+                        this.positions = new int[slots];
+                        Arrays.fill(this.positions, -1);
                 }
 
-                void pickup(int requestId) {
-                        stack.add(requestId);
-                        positions.put(requestId, stack.size() - 1);
+                StackState(StackState other) {
+                        this.stack = other.stack.clone();
+                        this.positions = other.positions.clone();
+                        this.size = other.size;
+                        this.lowerBound = other.lowerBound;
                 }
 
-                void deliver(int requestId) {
-                        Integer position = positions.get(requestId);
-                        if (position == null) {
-                                return;
+                void pickup(int slot) {
+                        stack[size] = slot;
+                        positions[slot] = size;
+                        size++;
+                }
+
+                void undoPickup(int slot) {
+                        size--;
+                        positions[slot] = -1;
+                }
+
+                /**
+                 * @return the position the request was delivered from, or -1 when it was
+                 *         not on the stack
+                 */
+                int deliver(int slot) {
+                        int position = positions[slot];
+                        if (position == -1) {
+                                return -1;
                         }
 
-                        int itemsAbove = stack.size() - 1 - position;
-                        lowerBound += itemsAbove;
+                        lowerBound += size - 1 - position;
 
-                        int topRequest = stack.get(stack.size() - 1);
-                        if (position != stack.size() - 1) {
-                                stack.set(position, topRequest);
-                                positions.put(topRequest, position);
+                        int topRequest = stack[size - 1];
+                        stack[position] = topRequest;
+                        positions[topRequest] = position;
+                        size--;
+                        positions[slot] = -1;
+                        return position;
+                }
+
+                void undoDeliver(int slot, int position) {
+                        if (position == -1) {
+                                return;
                         }
 
-                        stack.remove(stack.size() - 1);
-                        positions.remove(requestId);
+                        int topRequest = stack[position];
+                        size++;
+                        stack[size - 1] = topRequest;
+                        positions[topRequest] = size - 1;
+                        stack[position] = slot;
+                        positions[slot] = position;
+                        lowerBound -= size - 1 - position;
                 }
         }
 
-    // Compute the minimum number of overlapping intervals within this cluster using a sweep-line approach
+    /**
+     * Minimum number of intervals open when another one starts, taken over the
+     * starts that follow at least one end and precede at least one later start,
+     * i.e. the thinnest overlap at which the cluster could be split. Intervals
+     * are half-open, so an interval ending when another starts does not overlap
+     * it. Computed by one sweep over the sorted start and end times.
+     *
+     * @return the minimum overlap, or {@link Integer#MAX_VALUE} when no start
+     *         qualifies
+     */
     public int findminOverlapping(List<TimeWindow> intervals) {
-        PriorityQueue<Event> events_queue = new PriorityQueue<Event>(1,
-                new Comparator<Event>(){
-    			@Override
-    	    	public int compare(Event i, Event j){
-    	            if(i.getTime() > j.getTime()){
-    	                return 1;
-    	            }
-    	            else if (i.getTime() < j.getTime()){
-    	                return -1;
-    	            }
-    	            else{
-    	                return 0;
-    	            }
-    	        }
-    	    }); 
-    	
-    	PriorityQueue<Double> starttime_queue = new PriorityQueue<Double>(1, 
-    	        new Comparator<Double>(){
-    			@Override
-    	    	public int compare(Double i, Double j){
-    	            if(i > j){
-    	                return 1;
-    	            }
-    	            else if (i < j){
-    	                return -1;
-    	            }
-    	            else{
-    	                return 0;
-    	            }
-    	        }
-    	    }); 
-    	
-      
-        for (TimeWindow interval : intervals) {
-        	events_queue.add(new Event(interval.getStartTime(), true));  // start
-        	events_queue.add(new Event(interval.getEndTime(), false)); // end
-            starttime_queue.add(interval.getStartTime());
+        int n = intervals.size();
+        double[] starts = new double[n];
+        double[] ends = new double[n];
+        for (int k = 0; k < n; k++) {
+            starts[k] = intervals.get(k).getStartTime();
+            ends[k] = intervals.get(k).getEndTime();
         }
-        
-        List<Event> events = new ArrayList<>();
-        List<Double> startTimes = new ArrayList<>();
+        Arrays.sort(starts);
+        Arrays.sort(ends);
 
-        while(!events_queue.isEmpty()) {
-        	events.add(events_queue.poll());
-        }
-        
-        while(!starttime_queue.isEmpty()) {
-        	startTimes.add(starttime_queue.poll());
-        }
-
-        //Collections.sort(events);
-        //Collections.sort(startTimes);
-
-        int active = 0;
-        int ended = 0;
         int minOverlap = Integer.MAX_VALUE;
-
-        Map<Double, Integer> startsAfterMap = new HashMap<>();
-        for (Event e : events) {
-            int count = countStartsAfter(startTimes, e.getTime());
-            startsAfterMap.put(e.getTime(), count);
-        }
-
-        for (Event event : events) {
-            if (!event.isStart()) {
-                active--;
+        int ended = 0;
+        int started = 0;
+        while (started < n) {
+            double time = starts[started];
+            while (ended < n && ends[ended] <= time) {
                 ended++;
-            } else {
-                int startsAfter = startsAfterMap.getOrDefault(event.getTime(), 0);
-                if (ended > 0 && startsAfter > 0 && active < minOverlap) {
-                    minOverlap = active;
-                }
-                active++;
             }
+            int next = started;
+            while (next < n && starts[next] == time) {
+                next++;
+            }
+            if (ended > 0 && next < n) {
+                minOverlap = Math.min(minOverlap, started - ended);
+            }
+            started = next;
         }
-
         return minOverlap;
     }
 
-    // Binary search to count how many starts are strictly after 'time'
-    private int countStartsAfter(List<Double> startTimes, double time) {
-        int left = 0, right = startTimes.size();
-        while (left < right) {
-            int mid = (left + right) / 2;
-            if (startTimes.get(mid) <= time) {
-                left = mid + 1;
-            } else {
-                right = mid;
-            }
+    /**
+     * Overlap histogram of the cluster, sampled at whole-minute offsets from
+     * {@code origin}: entry {@code reach + j} holds {@link #getCounter(double)}
+     * at {@code origin + j} for every {@code j} from {@code -reach} to
+     * {@code reach}. Built from one difference array over the sampled span, so
+     * it costs a pass over the points plus the span instead of a scan per
+     * sample.
+     */
+    public int[] getCounters(double origin, int reach) {
+        int length = 2 * reach + 1;
+        int[] counts = new int[length + 1];
+        for (Point point : this.points) {
+            // First samples at or after the start and the end of the window
+            int opened = sampleIndex(point.getTimeWindow().getStartTime() - origin, reach, length);
+            int closed = sampleIndex(point.getTimeWindow().getEndTime() - origin, reach, length);
+            counts[opened]++;
+            counts[closed]--;
+        }
+        for (int k = 1; k < length; k++) {
+            counts[k] += counts[k - 1];
         }
-        return startTimes.size() - left;
+        return Arrays.copyOf(counts, length);
+    }
+
+    private static int sampleIndex(double offset, int reach, int length) {
+        double index = Math.ceil(offset) + reach;
+        return (int) Math.max(0, Math.min(length, index));
     }
 	
 	public Cluster() {
@@ -197,6 +238,17 @@ class Cluster {
         public void setLuPruningEnabled(boolean enabled) {
                 this.luPruningEnabled = enabled;
         }
+
+        /**
+         * Toggle fork-join enumeration. When enabled and the ordering evaluation pool has
+         * more than one thread, computeValidOrderings() splits the first levels of a
+         * permutation search that can reach at least MIN_FORKED_ORDERINGS orderings into
+         * tasks on that pool, all pruning against the same best LU cost. The orderings
+         * are collected in the order of the sequential search.
+         */
+        public void setParallelEnumerationEnabled(boolean enabled) {
+                this.parallelEnumerationEnabled = enabled;
+        }
 	
 	public void computeConsumption(Map<Integer,Point> current_pickups) {
 		for(Point point:this.points) {
@@ -212,12 +264,19 @@ class Cluster {
 	
         public void computeValidOrderings() {
                 this.valid_orderings = new ArrayList<List<Point>>();
-                boolean[] used = new boolean[this.points.size()];
-                int bottleneckCapacity = computeBottleneckCapacity();
-                this.bestLuCost = Integer.MAX_VALUE;
+                this.bestLuCost.set(Integer.MAX_VALUE);
 
+        if (this.points.size() > MAX_PERMUTED_POINTS) {
+                new OrderingEnumeration().cheapestBySubsets();
+                return;
+        }
         // Generate all permutations that respect source-before-destination ordering
-        backtrack(new ArrayList<>(), used, new HashSet<>(), this.valid_orderings, 0, bottleneckCapacity, new StackState());
+        if (this.parallelEnumerationEnabled && PrefixOrderingWalk.getParallelism() > 1
+                        && getPermutationCount() >= MIN_FORKED_ORDERINGS) {
+                new OrderingEnumeration().forkedBacktrack();
+                return;
+        }
+        new OrderingEnumeration().backtrack(0, 0L, 0);
 
         }
 
@@ -324,89 +383,358 @@ class Cluster {
 		return true;
 	}
 
-        private void backtrack(List<Point> current, boolean[] used, Set<Integer> sourcesAdded, List<List<Point>> valid_orderings, int currentCapacity, int bottleneckCapacity, StackState stackState) {
-                if (currentCapacity > bottleneckCapacity) {
-                        return;
+        /**
+         * Ordering search over the cluster's points compiled into primitive arrays:
+         * the kind, quantity and request slot of every point, and for deliveries the
+         * points that must already be visited. The visited set is a bitmask and the
+         * recursion undoes its changes in place, so no state is copied per step.
+         */
+        private final class OrderingEnumeration {
+                private final int size;
+                private final int[] order;
+                private final byte[] kinds;
+                private final int[] quantities;
+                private final int[] slots;
+                private final long[] required;
+                private final boolean[] blocked;
+                private final int bottleneckCapacity;
+                private final StackState stackState;
+                private final List<List<Point>> found;
+
+                OrderingEnumeration() {
+                        size = points.size();
+                        if (size >= Long.SIZE) {
+                                throw new IllegalStateException("Cluster of " + size + " points is too large to enumerate");
+                        }
+                        order = new int[size];
+                        kinds = new byte[size];
+                        quantities = new int[size];
+                        slots = new int[size];
+                        required = new long[size];
+                        blocked = new boolean[size];
+                        bottleneckCapacity = computeBottleneckCapacity();
+                        found = valid_orderings;
+
+                        Map<Integer, Integer> slotOfRequest = new HashMap<Integer, Integer>();
+                        Map<Integer, Integer> sourceOfRequest = new HashMap<Integer, Integer>();
+                        for (int i = 0; i < size; i++) {
+                                Point p = points.get(i);
+                                kinds[i] = "Source".equals(p.getType()) ? KIND_SOURCE
+                                                : "Destination".equals(p.getType()) ? KIND_DESTINATION : KIND_OTHER;
+                                quantities[i] = p.getServiceObject().getServiceQuantity();
+                                Integer slot = slotOfRequest.get(p.getID());
+                                if (slot == null) {
+                                        slot = slotOfRequest.size();
+                                        slotOfRequest.put(p.getID(), slot);
+                                }
+                                slots[i] = slot;
+                                if (kinds[i] == KIND_SOURCE) {
+                                        sourceOfRequest.put(p.getID(), i);
+                                }
+                        }
+
+                        Set<Integer> paired = new HashSet<Integer>(both);
+                        for (int i = 0; i < size; i++) {
+                                if (kinds[i] != KIND_DESTINATION || !paired.contains(points.get(i).getID())) {
+                                        continue;
+                                }
+                                // A delivery whose pickup is in the cluster waits for it
+                                Integer source = sourceOfRequest.get(points.get(i).getID());
+                                if (source == null) {
+                                        blocked[i] = true;
+                                } else {
+                                        required[i] = 1L << source;
+                                }
+                        }
+                        stackState = new StackState(slotOfRequest.size());
+                }
+
+                /**
+                 * Copy of {@code prefix} at its current depth that shares the compiled
+                 * points but has its own order, stack state and found orderings, so it
+                 * can continue the search on another thread.
+                 */
+                private OrderingEnumeration(OrderingEnumeration prefix) {
+                        size = prefix.size;
+                        order = prefix.order.clone();
+                        kinds = prefix.kinds;
+                        quantities = prefix.quantities;
+                        slots = prefix.slots;
+                        required = prefix.required;
+                        blocked = prefix.blocked;
+                        bottleneckCapacity = prefix.bottleneckCapacity;
+                        stackState = new StackState(prefix.stackState);
+                        found = new ArrayList<List<Point>>();
                 }
 
-                if (this.luPruningEnabled && stackState.lowerBound >= this.bestLuCost) {
-                        return;
+                void backtrack(int depth, long used, int currentCapacity) {
+                        if (pruned(currentCapacity)) {
+                                return;
+                        }
+
+                        if (depth == size) {
+                                int luCost = computeLuCost();
+                                if (luPruningEnabled) {
+                                        bestLuCost.accumulateAndGet(luCost, Math::min);
+                                }
+                                List<Point> ordering = new ArrayList<Point>(size);
+                                for (int i : order) {
+                                        ordering.add(points.get(i));
+                                }
+                                found.add(ordering);
+                                return;
+                        }
+
+                        for (int i = 0; i < size; i++) {
+                                long bit = 1L << i;
+                                if ((used & bit) != 0 || !allowed(i, used)) continue;
+
+                                int position = visit(depth, i);
+                                backtrack(depth + 1, used | bit, currentCapacity + loadChange(i));
+                                leave(i, position);
+                        }
                 }
 
-                if (current.size() == points.size()) {
-                        int luCost = computeLuCost(current);
-                        if (this.luPruningEnabled && luCost < this.bestLuCost) {
-                                this.bestLuCost = luCost;
+                /**
+                 * Runs {@link #backtrack} as fork-join tasks, one per prefix of the first
+                 * levels of the search tree, on the ordering evaluation pool.
+                 */
+                void forkedBacktrack() {
+                        int subtrees = PrefixOrderingWalk.getParallelism() * SUBTREES_PER_THREAD;
+                        int splitDepth = 0;
+                        for (long prefixes = 1; prefixes < subtrees && splitDepth < size - 1; splitDepth++) {
+                                prefixes *= size - splitDepth;
+                        }
+
+                        PrefixTask root = new PrefixTask(this, 0, 0L, 0, splitDepth);
+                        if (ForkJoinTask.inForkJoinPool()) {
+                                root.invoke();
+                        } else {
+                                PrefixOrderingWalk.getPool().invoke(root);
                         }
-                        valid_orderings.add(new ArrayList<Point>(current));
-                        return;
                 }
 
-                for (int i = 0; i < points.size(); i++) {
-                        if (used[i]) continue;
+                private boolean pruned(int currentCapacity) {
+                        return currentCapacity > bottleneckCapacity
+                                        || (luPruningEnabled && stackState.lowerBound >= bestLuCost.get());
+                }
+
+                // Sources may always be visited; a destination only once its source, when part of the cluster, has been
+                private boolean allowed(int i, long used) {
+                        return kinds[i] == KIND_SOURCE
+                                        || (kinds[i] == KIND_DESTINATION && !blocked[i] && (used & required[i]) == required[i]);
+                }
+
+                private int loadChange(int i) {
+                        return kinds[i] == KIND_SOURCE ? quantities[i] : -quantities[i];
+                }
+
+                /**
+                 * @return the stack position a delivery was made from, for {@link #leave}
+                 */
+                private int visit(int depth, int i) {
+                        order[depth] = i;
+                        if (kinds[i] == KIND_SOURCE) {
+                                stackState.pickup(slots[i]);
+                                return -1;
+                        }
+                        return stackState.deliver(slots[i]);
+                }
 
-                        Point p = points.get(i);
-                        int capacityChange = p.getServiceObject().getServiceQuantity();
+                private void leave(int i, int position) {
+                        if (kinds[i] == KIND_SOURCE) {
+                                stackState.undoPickup(slots[i]);
+                        } else {
+                                stackState.undoDeliver(slots[i], position);
+                        }
+                }
 
-                        // Allow source point
-                        if (p.getType()=="Source") {
-                                used[i] = true;
-                                sourcesAdded.add(p.getID());
-                                current.add(p);
+                /**
+                 * Dynamic program over subsets of visited points. The load after visiting a
+                 * set of points does not depend on their order, so the LU cost an added point
+                 * contributes depends only on the set and the point. For every set and last
+                 * point only the cheapest way to get there is kept, and the cheapest complete
+                 * ordering ending at each point becomes a valid ordering of the cluster.
+                 * Precedence and capacity are checked exactly as in {@link #backtrack}.
+                 * Sets are filled layer by layer in their number of points, and a layer
+                 * of at least twice MIN_PARALLEL_LAYER_STEPS steps is split into chunks
+                 * on the ordering evaluation pool when it has more than one thread.
+                 */
+                void cheapestBySubsets() {
+                        if (size > MAX_SUBSET_POINTS) {
+                                throw new IllegalStateException("Cluster of " + size + " points is too large for the subset program");
+                        }
 
-                                StackState nextStackState = stackState.copy();
-                                nextStackState.pickup(p.getID());
-                                backtrack(current, used, sourcesAdded, valid_orderings, currentCapacity + capacityChange, bottleneckCapacity, nextStackState);
+                        int sets = 1 << size;
+                        int[] load = new int[sets];
+                        for (int mask = 1; mask < sets; mask++) {
+                                int i = Integer.numberOfTrailingZeros(mask);
+                                load[mask] = load[mask & (mask - 1)] + (kinds[i] == KIND_SOURCE ? quantities[i] : -quantities[i]);
+                        }
 
-                                current.remove(current.size() - 1);
-                                sourcesAdded.remove(p.getID());
-                                used[i] = false;
+                        // Sets ordered by their number of points; a layer only reads the one before it
+                        int[] bySize = new int[sets];
+                        int[] layerStart = new int[size + 2];
+                        for (int mask = 0; mask < sets; mask++) {
+                                layerStart[Integer.bitCount(mask) + 1]++;
+                        }
+                        for (int count = 1; count <= size + 1; count++) {
+                                layerStart[count] += layerStart[count - 1];
+                        }
+                        int[] cursor = layerStart.clone();
+                        for (int mask = 0; mask < sets; mask++) {
+                                bySize[cursor[Integer.bitCount(mask)]++] = mask;
                         }
-                        // Allow destination only if source has been added
-                        else if (p.getType()=="Destination") {
-                                if(both.contains(p.getID()) && sourcesAdded.contains(p.getID())) {
-                                        used[i] = true;
-                                        current.add(p);
-
-                                        StackState nextStackState = stackState.copy();
-                                        nextStackState.deliver(p.getID());
-                                        backtrack(current, used, sourcesAdded, valid_orderings, currentCapacity - capacityChange, bottleneckCapacity, nextStackState);
-
-                                        current.remove(current.size() - 1);
-                                        used[i] = false;
+
+                        int[] cost = new int[sets * size];
+                        int[] previous = new int[sets * size];
+                        Arrays.fill(cost, Integer.MAX_VALUE);
+                        boolean[] reached = new boolean[sets];
+                        reached[0] = true;
+                        int threads = PrefixOrderingWalk.getParallelism();
+                        for (int count = 1; count <= size; count++) {
+                                int from = layerStart[count];
+                                int to = layerStart[count + 1];
+                                // One chunk per thread at most, each worth forking
+                                int chunks = (int) Math.min(threads, (long) (to - from) * count * count / MIN_PARALLEL_LAYER_STEPS);
+                                if (chunks < 2) {
+                                        for (int k = from; k < to; k++) {
+                                                reach(bySize[k], load, cost, previous, reached);
+                                        }
+                                } else {
+                                        PrefixOrderingWalk.getPool().submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                                                int end = from + (int) ((long) (to - from) * (chunk + 1) / chunks);
+                                                for (int k = from + (int) ((long) (to - from) * chunk / chunks); k < end; k++) {
+                                                        reach(bySize[k], load, cost, previous, reached);
+                                                }
+                                        })).join();
+                                }
+                        }
+
+                        int full = sets - 1;
+                        for (int last = 0; last < size; last++) {
+                                int luCost = cost[full * size + last];
+                                if (luCost == Integer.MAX_VALUE) continue;
+                                bestLuCost.accumulateAndGet(luCost, Math::min);
+
+                                Point[] ordering = new Point[size];
+                                for (int mask = full, point = last, depth = size - 1; point != -1; depth--) {
+                                        ordering[depth] = points.get(point);
+                                        int before = previous[mask * size + point];
+                                        mask &= ~(1 << point);
+                                        point = before;
                                 }
-                                else if (!both.contains(p.getID())) {
-                                        used[i] = true;
-                                        current.add(p);
+                                valid_orderings.add(new ArrayList<Point>(Arrays.asList(ordering)));
+                        }
+                }
+
+                /**
+                 * Fills the states of {@code next}, one per point it can end at, from the
+                 * states of the sets one point smaller. Of equally cheap ways in, the one
+                 * through the lowest previous point is kept. Only the states of
+                 * {@code next} are written, along with whether any of them was reached,
+                 * so the sets of one layer can be reached concurrently.
+                 */
+                private void reach(int next, int[] load, int[] cost, int[] previous, boolean[] reached) {
+                        if (load[next] > bottleneckCapacity) {
+                                return;
+                        }
 
-                                        StackState nextStackState = stackState.copy();
-                                        nextStackState.deliver(p.getID());
-                                        backtrack(current, used, sourcesAdded, valid_orderings, currentCapacity - capacityChange, bottleneckCapacity, nextStackState);
+                        for (int rest = next; rest != 0; rest &= rest - 1) {
+                                int i = Integer.numberOfTrailingZeros(rest);
+                                int mask = next & ~(1 << i);
+                                if (!reached[mask]) continue;
+                                boolean allowed = kinds[i] == KIND_SOURCE
+                                                || (kinds[i] == KIND_DESTINATION && !blocked[i] && (mask & required[i]) == required[i]);
+                                if (!allowed) continue;
+
+                                int added = quantities[i];
+                                if (kinds[i] == KIND_DESTINATION) {
+                                        added += 2*load[next];
+                                }
+                                int best = mask == 0 ? added : Integer.MAX_VALUE;
+                                int before = -1;
+                                for (int others = mask; others != 0; others &= others - 1) {
+                                        int last = Integer.numberOfTrailingZeros(others);
+                                        int luCost = cost[mask * size + last];
+                                        if (luCost != Integer.MAX_VALUE && luCost + added < best) {
+                                                best = luCost + added;
+                                                before = last;
+                                        }
+                                }
+                                if (best != Integer.MAX_VALUE) {
+                                        cost[next * size + i] = best;
+                                        previous[next * size + i] = before;
+                                        reached[next] = true;
+                                }
+                        }
+                }
 
-                                        current.remove(current.size() - 1);
-                                        used[i] = false;
+                private int computeLuCost() {
+                        int luCost = 0;
+                        int currentLoad = 0;
+                        for (int i : order) {
+                                if (kinds[i] == KIND_SOURCE) {
+                                        luCost += quantities[i];
+                                        currentLoad += quantities[i];
+                                }
+                                else if (kinds[i] == KIND_DESTINATION) {
+                                        luCost += quantities[i];
+                                        currentLoad -= quantities[i];
+                                        luCost += 2*currentLoad;
                                 }
                         }
+                        return luCost;
                 }
         }
 
-        private int computeLuCost(List<Point> ordering) {
-                int luCost = 0;
-                int currentLoad = 0;
-                for(Point point: ordering) {
-                        if(point.getType()=="Source") {
-                                int loadingCost = point.getServiceObject().getServiceQuantity();
-                                luCost += loadingCost;
-                                currentLoad += loadingCost;
+        /**
+         * Subtree of the permutation search below a prefix. Above the split depth a task
+         * forks one child per feasible next point and appends the children's orderings
+         * in point order, so the result matches the sequential search.
+         */
+        private final class PrefixTask extends RecursiveAction {
+                private static final long serialVersionUID = 1L;
+
+                private final OrderingEnumeration search;
+                private final int depth;
+                private final long used;
+                private final int currentCapacity;
+                private final int splitDepth;
+
+                PrefixTask(OrderingEnumeration search, int depth, long used, int currentCapacity, int splitDepth) {
+                        this.search = search;
+                        this.depth = depth;
+                        this.used = used;
+                        this.currentCapacity = currentCapacity;
+                        this.splitDepth = splitDepth;
+                }
+
+                @Override
+                protected void compute() {
+                        if (depth >= splitDepth) {
+                                search.backtrack(depth, used, currentCapacity);
+                                return;
+                        }
+                        if (search.pruned(currentCapacity)) {
+                                return;
+                        }
+
+                        List<PrefixTask> children = new ArrayList<PrefixTask>();
+                        for (int i = 0; i < search.size; i++) {
+                                long bit = 1L << i;
+                                if ((used & bit) != 0 || !search.allowed(i, used)) continue;
+
+                                int position = search.visit(depth, i);
+                                children.add(new PrefixTask(new OrderingEnumeration(search), depth + 1, used | bit,
+                                                currentCapacity + search.loadChange(i), splitDepth));
+                                search.leave(i, position);
                         }
-                        else if(point.getType()=="Destination") {
-                                int unloadingCost = point.getServiceObject().getServiceQuantity();
-                                luCost += unloadingCost;
-                                currentLoad -= unloadingCost;
-                                luCost += 2*currentLoad;
+                        invokeAll(children);
+                        for (PrefixTask child : children) {
+                                search.found.addAll(child.search.found);
                         }
                 }
-                return luCost;
         }
 
         private int computeBottleneckCapacity() {
@@ -452,6 +780,18 @@ class Cluster {
 		return this.points.size();
 	}
 
+	/**
+	 * @return number of orderings the permutation search reaches when capacity
+	 *         prunes none, n! halved for every paired request
+	 */
+	public double getPermutationCount() {
+		double permutations = 1;
+		for(int k = 2; k <= this.points.size(); k++) {
+			permutations *= k;
+		}
+		return permutations / Math.pow(2, this.both.size());
+	}
+
 	public double getCounter(double time_point) {
 		int count = 0;
         for (Point point : this.points) {
@@ -0,0 +1,326 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dynamic program over the time-ordered clusters of {@link Rider}. A label
+ * describes a partial route at a cluster boundary (last node, departure time,
+ * distance, loading/unloading cost, served quantity, and the requests picked
+ * up but not yet delivered). Cluster by cluster, each label is extended by
+ * every ordering of the next cluster, with legs timed from the label's
+ * departure time. A pickup that misses its time window, overloads the vehicle
+ * or leaves the depot out of reach is dropped together with its delivery, as
+ * {@link Ordering#validateAndPrunePoints()} would, so labels differ in the
+ * requests they serve. Among labels ending at the same node, a label is
+ * dropped when another one is at least as good in every component and owes
+ * no delivery it does not owe itself. The work therefore grows with the
+ * number of clusters times the size of the label sets rather than with the
+ * product of the ordering counts.
+ *
+ * <p>Deliveries of requests picked up in an earlier cluster cannot be dropped
+ * any more. When no label gets through a cluster, the program starts over
+ * without one such request, the one whose delivery window closes first,
+ * rather than giving up on the whole route.</p>
+ */
+class ClusterLabelDP {
+
+    private final List<List<List<Point>>> choices;
+    private final Point depot;
+    private final int capacity;
+    private final double startTime;
+    private final double endTime;
+    private final LegObjective objective;
+    private final LegProfileCache legs;
+    private final DepotReturnProfile depotReturn;
+
+    /**
+     * @param choices     for every cluster in visiting order, its candidate
+     *                    orderings
+     * @param depot       first and last point of every route
+     * @param capacity    vehicle capacity
+     * @param startTime   departure time from the depot
+     * @param endTime     end of the working hours
+     * @param objective   leg routing objective
+     * @param depotReturn return legs to {@code depot}
+     */
+    ClusterLabelDP(List<List<List<Point>>> choices, Point depot, int capacity, double startTime, double endTime,
+            LegObjective objective, DepotReturnProfile depotReturn) {
+        this.choices = choices;
+        this.depot = depot;
+        this.capacity = capacity;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.objective = objective;
+        this.legs = new LegProfileCache(startTime, endTime, objective);
+        this.depotReturn = depotReturn;
+    }
+
+    /**
+     * @return one route per non-dominated label that gets back to the depot in
+     *         time, or the empty depot route when no label does
+     */
+    List<Ordering> solve() {
+        List<List<List<Point>>> stages = this.choices;
+        while (true) {
+            int failed = -1;
+            Map<Integer, List<Label>> labels = new LinkedHashMap<>();
+            int depotNode = this.depot.getNode().getNodeID();
+            labels.put(depotNode, new ArrayList<>(Collections.singletonList(new Label(null, Collections.emptyList(),
+                    Collections.emptyList(), depotNode, this.startTime, 0, 0, 0, Collections.emptySet(), 0))));
+
+            Set<Integer> pickedUp = new HashSet<>();
+            for (int k = 0; k < stages.size(); k++) {
+                Map<Integer, List<Label>> next = new LinkedHashMap<>();
+                for (List<Point> ordering : stages.get(k)) {
+                    for (List<Label> bucket : labels.values()) {
+                        for (Label label : bucket) {
+                            Label extended = extend(label, ordering, pickedUp);
+                            if (extended != null) {
+                                insert(next, extended);
+                            }
+                        }
+                    }
+                }
+                if (next.isEmpty()) {
+                    failed = k;
+                    break;
+                }
+                for (Point point : stages.get(k).get(0)) {
+                    if ("Source".equals(point.getType())) {
+                        pickedUp.add(point.getID());
+                    }
+                }
+                labels = next;
+            }
+
+            if (failed != -1) {
+                stages = without(stages, requestToDrop(stages.get(failed).get(0)));
+                continue;
+            }
+
+            List<Ordering> routes = new ArrayList<>();
+            for (List<Label> bucket : labels.values()) {
+                for (Label label : bucket) {
+                    Ordering route = complete(label);
+                    if (route != null) {
+                        routes.add(route);
+                    }
+                }
+            }
+            if (routes.isEmpty()) {
+                routes.add(new Ordering(Arrays.asList(this.depot, this.depot), this.startTime, this.endTime, this.objective));
+            }
+            return routes;
+        }
+    }
+
+    /**
+     * @return {@code label} followed by {@code ordering} without the requests
+     *         it has to drop, or {@code null} when a delivery it owes, or a
+     *         point that is neither pickup nor delivery, cannot be made in time,
+     *         or a delivery comes before its pickup
+     */
+    private Label extend(Label label, List<Point> ordering, Set<Integer> pickedUp) {
+        Set<Integer> dropped = new HashSet<>();
+        retry:
+        while (true) {
+            List<Point> visited = new ArrayList<>(ordering.size());
+            List<Path> segments = new ArrayList<>(ordering.size());
+            Set<Integer> open = new HashSet<>(label.open);
+            Set<Integer> pickedHere = new HashSet<>();
+            int node = label.node;
+            double time = label.time;
+            double distance = label.distance;
+            int luCost = label.luCost;
+            int served = label.served;
+            int load = label.load;
+            for (Point point : ordering) {
+                int id = point.getID();
+                int quantity = point.getServiceObject().getServiceQuantity();
+                boolean pickup = "Source".equals(point.getType());
+                boolean delivery = "Destination".equals(point.getType());
+                if (pickup && (dropped.contains(id) || load + quantity > this.capacity)) {
+                    dropped.add(id);
+                    continue;
+                }
+                if (delivery && !open.contains(id)) {
+                    if (dropped.contains(id) || pickedUp.contains(id)) {
+                        // Its pickup was dropped in this or an earlier cluster
+                        continue;
+                    }
+                    return null;
+                }
+
+                int next = point.getNode().getNodeID();
+                LegResult leg = this.legs.leg(node, next, time);
+                double departure = leg == null ? 0 : Math.max(leg.arrivalTime, point.getTimeWindow().getStartTime());
+                if (leg == null || leg.arrivalTime > point.getTimeWindow().getEndTime()
+                        || departure > this.depotReturn.latestDeparture(next)) {
+                    if (pickup) {
+                        dropped.add(id);
+                        continue;
+                    }
+                    if (delivery && pickedHere.contains(id)) {
+                        dropped.add(id);
+                        continue retry;
+                    }
+                    return null;
+                }
+
+                visited.add(point);
+                segments.add(new Path(node, next, time, this.objective, leg.distance, leg.arrivalTime - time));
+                distance += leg.distance;
+                time = departure;
+                node = next;
+                if (pickup) {
+                    open.add(id);
+                    pickedHere.add(id);
+                    load += quantity;
+                    luCost += quantity;
+                    served += quantity;
+                } else if (delivery) {
+                    open.remove(id);
+                    load -= quantity;
+                    luCost += quantity + 2 * load;
+                }
+            }
+            return new Label(label, visited, segments, node, time, distance, luCost, served, open, load);
+        }
+    }
+
+    /**
+     * @return the request of a cluster that no label got through to give up:
+     *         among its deliveries of requests picked up in earlier clusters
+     *         the one whose window closes first, or else its first request
+     */
+    private static int requestToDrop(List<Point> cluster) {
+        Set<Integer> pickups = new HashSet<>();
+        for (Point point : cluster) {
+            if ("Source".equals(point.getType())) {
+                pickups.add(point.getID());
+            }
+        }
+        Point drop = null;
+        for (Point point : cluster) {
+            if ("Destination".equals(point.getType()) && !pickups.contains(point.getID())
+                    && (drop == null || point.getTimeWindow().getEndTime() < drop.getTimeWindow().getEndTime())) {
+                drop = point;
+            }
+        }
+        return drop != null ? drop.getID() : cluster.get(0).getID();
+    }
+
+    /**
+     * @return the orderings of every cluster with the pickup and delivery of
+     *         {@code request} left out, orderings that become equal merged
+     */
+    private static List<List<List<Point>>> without(List<List<List<Point>>> stages, int request) {
+        List<List<List<Point>>> remaining = new ArrayList<>(stages.size());
+        for (List<List<Point>> orderings : stages) {
+            Set<List<Point>> kept = new LinkedHashSet<>();
+            for (List<Point> ordering : orderings) {
+                List<Point> filtered = new ArrayList<>(ordering.size());
+                for (Point point : ordering) {
+                    if (point.getID() != request) {
+                        filtered.add(point);
+                    }
+                }
+                kept.add(filtered);
+            }
+            remaining.add(new ArrayList<>(kept));
+        }
+        return remaining;
+    }
+
+    /**
+     * Adds {@code label} to the set of labels ending at its node unless one of
+     * them dominates it, dropping those it dominates. Ties keep the label
+     * inserted first.
+     */
+    private static void insert(Map<Integer, List<Label>> labels, Label label) {
+        List<Label> bucket = labels.computeIfAbsent(label.node, node -> new ArrayList<>());
+        for (Label other : bucket) {
+            if (other.dominates(label)) {
+                return;
+            }
+        }
+        bucket.removeIf(label::dominates);
+        bucket.add(label);
+    }
+
+    private Ordering complete(Label label) {
+        if (!label.open.isEmpty()) {
+            return null;
+        }
+        LegResult home = this.depotReturn.leg(label.node, label.time);
+        if (home == null || home.arrivalTime > this.endTime) {
+            return null;
+        }
+
+        List<Label> chain = new ArrayList<>();
+        for (Label current = label; current.parent != null; current = current.parent) {
+            chain.add(current);
+        }
+        Collections.reverse(chain);
+
+        List<Point> points = new ArrayList<>();
+        List<Path> segments = new ArrayList<>();
+        points.add(this.depot);
+        for (Label step : chain) {
+            points.addAll(step.ordering);
+            segments.addAll(step.segments);
+        }
+        points.add(this.depot);
+        segments.add(new Path(label.node, this.depot.getNode().getNodeID(), label.time, this.objective,
+                home.distance, home.arrivalTime - label.time));
+        return new Ordering(points, segments, label.distance + home.distance, home.arrivalTime - this.startTime,
+                this.startTime, this.endTime, this.objective, null);
+    }
+
+    /**
+     * State of a partial route after a cluster, linked to the label it
+     * extends.
+     */
+    private static final class Label {
+        private final Label parent;
+        private final List<Point> ordering;
+        private final List<Path> segments;
+        private final int node;
+        private final double time;
+        private final double distance;
+        private final int luCost;
+        private final int served;
+        private final Set<Integer> open;
+        private final int load;
+
+        Label(Label parent, List<Point> ordering, List<Path> segments, int node, double time, double distance,
+                int luCost, int served, Set<Integer> open, int load) {
+            this.parent = parent;
+            this.ordering = ordering;
+            this.segments = segments;
+            this.node = node;
+            this.time = time;
+            this.distance = distance;
+            this.luCost = luCost;
+            this.served = served;
+            this.open = open;
+            this.load = load;
+        }
+
+        /**
+         * A label owing fewer deliveries can follow every continuation of the
+         * other one, skipping the deliveries it does not owe.
+         */
+        boolean dominates(Label other) {
+            return this.time <= other.time && this.distance <= other.distance
+                    && this.luCost <= other.luCost && this.served >= other.served
+                    && other.open.containsAll(this.open);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Lazy cross product of per-cluster orderings. Combination {@code i} is the
+ * mixed-radix number whose digit {@code k} selects an ordering of cluster
+ * {@code k} (the last cluster varies fastest, matching a depth-first walk over
+ * the clusters). The spliterator covers a range of combination indices and
+ * splits it in halves, so a parallel stream enumerates disjoint ranges without
+ * ever holding more than the combinations currently being evaluated.
+ */
+class CrossProductSpliterator implements Spliterator<List<Point>> {
+
+    private final List<List<List<Point>>> choices;
+    private final int[] digits;
+    private long index;
+    private final long end;
+
+    /**
+     * @param choices for every cluster in visiting order, its candidate
+     *                orderings
+     */
+    CrossProductSpliterator(List<List<List<Point>>> choices) {
+        this(choices, 0, size(choices));
+    }
+
+    private CrossProductSpliterator(List<List<List<Point>>> choices, long start, long end) {
+        this.choices = choices;
+        this.digits = new int[choices.size()];
+        this.index = start;
+        this.end = end;
+        decode(start);
+    }
+
+    /**
+     * @return number of combinations
+     * @throws IllegalStateException if the count does not fit in a long
+     */
+    static long size(List<List<List<Point>>> choices) {
+        long size = 1;
+        for (List<List<Point>> orderings : choices) {
+            try {
+                size = Math.multiplyExact(size, orderings.size());
+            } catch (ArithmeticException e) {
+                throw new IllegalStateException("Too many cluster ordering combinations to enumerate", e);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super List<Point>> action) {
+        if (this.index >= this.end) {
+            return false;
+        }
+
+        List<Point> combination = new ArrayList<>();
+        for (int k = 0; k < this.digits.length; k++) {
+            combination.addAll(this.choices.get(k).get(this.digits[k]));
+        }
+        this.index++;
+        increment();
+        action.accept(combination);
+        return true;
+    }
+
+    @Override
+    public Spliterator<List<Point>> trySplit() {
+        long remaining = this.end - this.index;
+        if (remaining < 2) {
+            return null;
+        }
+        long middle = this.index + remaining / 2;
+        Spliterator<List<Point>> prefix = new CrossProductSpliterator(this.choices, this.index, middle);
+        this.index = middle;
+        decode(middle);
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return this.end - this.index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    private void decode(long value) {
+        for (int k = this.digits.length - 1; k >= 0; k--) {
+            int radix = this.choices.get(k).size();
+            if (radix == 0) {
+                return; // empty product, nothing to decode
+            }
+            this.digits[k] = (int) (value % radix);
+            value /= radix;
+        }
+    }
+
+    private void increment() {
+        for (int k = this.digits.length - 1; k >= 0; k--) {
+            if (++this.digits[k] < this.choices.get(k).size()) {
+                return;
+            }
+            this.digits[k] = 0;
+        }
+    }
+}
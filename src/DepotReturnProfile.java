@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Return legs to the depot of one query, precomputed from two backward trees
+ * rooted at the depot:
+ * <ul>
+ * <li>a distance tree holding, for every node, its network distance to the
+ * depot and the next hop of its distance-optimal return path. The arrival
+ * profile of a return path is composed on first use and then answers the
+ * return leg for any departure time in the working window by lookup;</li>
+ * <li>a latest-departure tree ({@link LatestDepartureSearch}) holding the
+ * latest time each node can be left and still reach the depot by the end of
+ * the working hours. Any route sitting at a node later than that can no
+ * longer get home in time, whatever it visits next.</li>
+ * </ul>
+ */
+class DepotReturnProfile {
+
+    private final int depot;
+    private final double earliestDeparture;
+    private final double latestDeparture;
+    private final LegObjective objective;
+    private final Map<Integer, Double> distanceToDepot = new HashMap<>();
+    private final Map<Integer, Integer> nextHop = new HashMap<>();
+    private final Map<Integer, Double> latestDepartures;
+    private final Map<Integer, LegProfile> profiles = new ConcurrentHashMap<>();
+
+    DepotReturnProfile(Query query, LegObjective objective) {
+        this.depot = query.getDepot().getNode().getNodeID();
+        this.earliestDeparture = query.getQueryStartTime();
+        this.latestDeparture = query.getQueryEndTime();
+        this.objective = objective;
+        buildDistanceTree();
+        this.latestDepartures = LatestDepartureSearch.tree(this.depot, query.getQueryEndTime(), null);
+    }
+
+    /**
+     * @return the return leg from {@code node} departing at
+     *         {@code departureTime}, or {@code null} when the depot cannot be
+     *         reached from {@code node}
+     */
+    LegResult leg(int node, double departureTime) {
+        if (this.objective != LegObjective.SHORTEST
+                || departureTime < this.earliestDeparture || departureTime > this.latestDeparture) {
+            return LegSearch.leg(this.objective, node, this.depot, departureTime);
+        }
+
+        LegProfile profile = profile(node);
+        return profile == null ? null : profile.legAt(departureTime);
+    }
+
+    /**
+     * @return the latest time {@code node} can be left to reach the depot by
+     *         the end of the working hours, or negative infinity when the depot
+     *         cannot be reached from it
+     */
+    double latestDeparture(int node) {
+        Double latest = this.latestDepartures.get(node);
+        return latest == null ? Double.NEGATIVE_INFINITY : latest;
+    }
+
+    /**
+     * @return network distance from {@code node} to the depot, or positive
+     *         infinity when the depot cannot be reached from it
+     */
+    double distanceToDepot(int node) {
+        Double distance = this.distanceToDepot.get(node);
+        return distance == null ? Double.POSITIVE_INFINITY : distance;
+    }
+
+    private LegProfile profile(int node) {
+        LegProfile profile = this.profiles.get(node);
+        if (profile != null || !this.nextHop.containsKey(node)) {
+            return profile;
+        }
+
+        List<Integer> path = new ArrayList<>();
+        for (int current = node; current != -1; current = this.nextHop.get(current)) {
+            path.add(current);
+        }
+        profile = LegProfile.along(path, this.earliestDeparture, this.latestDeparture);
+        LegProfile existing = this.profiles.putIfAbsent(node, profile);
+        return existing != null ? existing : profile;
+    }
+
+    /**
+     * Dijkstra over the incoming adjacency from the depot, covering every node
+     * that can reach it.
+     */
+    private void buildDistanceTree() {
+        Set<Integer> settled = new HashSet<>();
+        PriorityQueue<Priority> queue = new PriorityQueue<>((a, b) -> Double.compare(a.getPriority(), b.getPriority()));
+        this.distanceToDepot.put(this.depot, 0.0);
+        this.nextHop.put(this.depot, -1);
+        queue.add(new Priority(this.depot, 0.0));
+
+        while (!queue.isEmpty()) {
+            int current = queue.poll().getNode();
+            if (!settled.add(current)) {
+                continue; // stale queue entry
+            }
+
+            double distance = this.distanceToDepot.get(current);
+            for (Entry<Integer, Edge> edgeEntry : Graph.get_node(current).get_incoming_edges().entrySet()) {
+                int parent = edgeEntry.getValue().get_source();
+                double tentative = distance + edgeEntry.getValue().getDistance();
+                if (!settled.contains(parent)
+                        && (!this.distanceToDepot.containsKey(parent) || tentative < this.distanceToDepot.get(parent))) {
+                    this.distanceToDepot.put(parent, tentative);
+                    this.nextHop.put(parent, current);
+                    queue.add(new Priority(parent, tentative));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+import java.util.List;
+
+/**
+ * Preprocessed answer to static shortest-distance queries over the loaded
+ * {@link Graph}, used by {@link LegSearch} for shortest legs and by the exact
+ * solver for its distance lower bounds.
+ */
+interface DistanceOracle {
+
+    /**
+     * @return network distance from {@code src} to {@code dest}, or positive
+     *         infinity when {@code dest} cannot be reached
+     */
+    double distance(int src, int dest);
+
+    /**
+     * @return a shortest path including both endpoints, or {@code null} when
+     *         it cannot be produced
+     */
+    List<Integer> path(int src, int dest);
+}
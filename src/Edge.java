@@ -9,6 +9,7 @@ class Edge {
 	private	boolean iterable = false;
 	private	NavigableMap<Integer, Properties> edge_property;
 	private double distance;
+	private double min_travel_cost = Double.MAX_VALUE;
 	
 	public int get_source(){
 		return this.source;
@@ -20,6 +21,8 @@ class Edge {
 
 	public void add_property(int departure_time, Properties properties){
 		edge_property.put(departure_time, properties);
+		if(properties.get_travel_cost()<min_travel_cost)
+			min_travel_cost = properties.get_travel_cost();
 		if(!iterable && properties.get_score()>0)
 			this.set_iterability();
 	}
@@ -32,6 +35,14 @@ class Edge {
 		return this.distance;
 	}
 
+	/**
+	 * @return smallest travel cost over the whole time profile, a lower bound on
+	 * the time needed to traverse this edge at any departure time
+	 */
+	public double getMinTravelCost() {
+		return this.min_travel_cost;
+	}
+
 	public Edge(int src, int dest, double dist){
 		this.source = src;
 		this.destination = dest;
@@ -60,33 +71,35 @@ class Edge {
 		return linear_function(x1, x2, y1, y2, departure_time);
 	}
 
+	/**
+	 * Inverse of {@link #get_arrival_time(double)}: the latest departure time
+	 * that still reaches the end of the edge by {@code arrival_time}. The
+	 * arrival function is assumed non-decreasing (FIFO), so the segment whose
+	 * arrival range contains {@code arrival_time} is searched from the end of
+	 * the day backwards.
+	 */
 	public double get_departure_time(double arrival_time){
-		double x1, x2, y1, y2;
-		Entry<Integer, Properties> element = get_itr(arrival_time);
-		
-		if(arrival_time==element.getKey()){
-			x2 = element.getKey();
-			y2 = element.getKey() + element.getValue().get_travel_cost();
+		Entry<Integer, Properties> first = this.edge_property.firstEntry();
+		if(arrival_time < first.getKey() + first.getValue().get_travel_cost())
+			return arrival_time - first.getValue().get_travel_cost();
 
-			Entry<Integer, Properties> previous_element = this.edge_property.lowerEntry(element.getKey());
-			x1 = previous_element.getKey();
-			y1 = previous_element.getKey() + previous_element.getValue().get_travel_cost();
-		}
-		else{
-			x1 = element.getKey();
-			y1 = element.getKey() + element.getValue().get_travel_cost();
+		double x2 = 24*60;
+		double y2 = 24*60 + first.getValue().get_travel_cost();
+		if(arrival_time >= y2)
+			return arrival_time - first.getValue().get_travel_cost();
 
-			if(this.edge_property.higherEntry(element.getKey())!=null){
-				Entry<Integer, Properties> next_element = this.edge_property.higherEntry(element.getKey());
-				x2 = next_element.getKey();
-				y2 = next_element.getKey() + next_element.getValue().get_travel_cost();
-			}
-			else{
-				x2 = 24*60;
-				y2 = 24*60 + this.edge_property.entrySet().iterator().next().getValue().get_travel_cost();
+		for(Entry<Integer, Properties> element : this.edge_property.descendingMap().entrySet()) {
+			double x1 = element.getKey();
+			double y1 = element.getKey() + element.getValue().get_travel_cost();
+			if(arrival_time >= y1) {
+				if(arrival_time >= y2)
+					return x2;
+				return linear_function(y1, y2, x1, x2, arrival_time);
 			}
+			x2 = x1;
+			y2 = y1;
 		}
-		return linear_function(y1, y2, x1, x2, arrival_time);
+		return arrival_time - first.getValue().get_travel_cost();
 	}
 
 	public int get_score(double departure_time){
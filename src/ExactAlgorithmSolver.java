@@ -16,26 +16,24 @@ import java.util.Set;
  * pickup and delivery orders while maintaining precedence, vehicle capacity,
  * and time-window feasibility. A multi-stage lower bound (nearest connection +
  * Euclidean MST + return to depot) aggressively prunes dominated partial tours
- * so only states that can still improve the incumbent are explored.
+ * so only states that can still improve the incumbent are explored; with a
+ * distance oracle installed the first two stages use network distances
+ * instead. Return
+ * legs, network distances to the depot and the latest time each node can be
+ * left for the depot come from a {@link DepotReturnProfile} built once per
+ * query.
  */
 public class ExactAlgorithmSolver {
 
-    private static class LegResult {
-        final double distance;
-        final double arrivalTime;
-
-        LegResult(double distance, double arrivalTime) {
-            this.distance = distance;
-            this.arrivalTime = arrivalTime;
-        }
-    }
-
     private final Query query;
     private final List<Point> pickups;
     private final List<Point> deliveries;
     private final List<Integer> quantities;
     private final Point depot;
 
+    private LegObjective legObjective = LegObjective.SHORTEST;
+    private DepotReturnProfile depotReturn;
+
     private ExactSolution bestSolution;
 
     public ExactAlgorithmSolver(Query query) {
@@ -47,6 +45,13 @@ public class ExactAlgorithmSolver {
         extractRequests();
     }
 
+    /**
+     * Select how individual legs are routed; defaults to {@link LegObjective#SHORTEST}.
+     */
+    public void setLegObjective(LegObjective objective) {
+        this.legObjective = objective;
+    }
+
     private void extractRequests() {
         for (Entry<Integer, Service> entry : query.getServices().entrySet()) {
             Service service = entry.getValue();
@@ -64,6 +69,7 @@ public class ExactAlgorithmSolver {
         List<Point> route = new ArrayList<>();
         route.add(depot);
 
+        depotReturn = new DepotReturnProfile(query, legObjective);
         explore(depot, query.getQueryStartTime(), 0, 0, 0, 0, picked, delivered, route);
 
         if (bestSolution == null) {
@@ -77,8 +83,12 @@ public class ExactAlgorithmSolver {
     private void explore(Point currentPoint, double currentTime, double distance, int luCost, int load,
             int completedQuantity, boolean[] picked, boolean[] delivered, List<Point> route) {
 
+        if (currentTime > depotReturn.latestDeparture(currentPoint.getNode().getNodeID())) {
+            return; // cannot get back to the depot before the end of the working hours
+        }
+
         if (allDelivered(delivered)) {
-            LegResult backLeg = shortestLeg(currentPoint.getNode().getNodeID(), depot.getNode().getNodeID(), currentTime);
+            LegResult backLeg = depotReturn.leg(currentPoint.getNode().getNodeID(), currentTime);
             if (backLeg == null) {
                 return;
             }
@@ -126,9 +136,13 @@ public class ExactAlgorithmSolver {
             double currentTime, double distance, int luCost, int load, int completedQuantity, boolean[] picked,
             boolean[] delivered, List<Point> route) {
 
-        LegResult leg = shortestLeg(currentPoint.getNode().getNodeID(), nextPoint.getNode().getNodeID(), currentTime);
+        // arriving later than the next point can be left for the depot is as hopeless as missing its window
+        double latestArrival = Math.min(Math.min(nextPoint.getTimeWindow().getEndTime(), query.getQueryEndTime()),
+                depotReturn.latestDeparture(nextPoint.getNode().getNodeID()));
+        LegResult leg = LegSearch.boundedLeg(legObjective, currentPoint.getNode().getNodeID(),
+                nextPoint.getNode().getNodeID(), currentTime, latestArrival);
         if (leg == null) {
-            return;
+            return; // unreachable, or too late for the window or the working hours
         }
 
         double arrivalTime = leg.arrivalTime;
@@ -212,25 +226,38 @@ public class ExactAlgorithmSolver {
         }
 
         Node currentNode = currentPoint.getNode();
-        Node depotNode = depot.getNode();
 
         if (remainingNodes.isEmpty()) {
-            return currentNode.euclidean_distance(depotNode);
+            return depotReturn.distanceToDepot(currentNode.getNodeID());
         }
 
         double toRemaining = Double.MAX_VALUE;
         double toDepot = Double.MAX_VALUE;
 
         for (Node node : remainingNodes) {
-            toRemaining = Math.min(toRemaining, currentNode.euclidean_distance(node));
-            toDepot = Math.min(toDepot, node.euclidean_distance(depotNode));
+            toRemaining = Math.min(toRemaining, lowerBound(currentNode, node));
+            toDepot = Math.min(toDepot, depotReturn.distanceToDepot(node.getNodeID()));
         }
 
-        double mst = euclideanMST(remainingNodes);
+        double mst = spanningTreeBound(remainingNodes);
         return toRemaining + mst + toDepot;
     }
 
-    private double euclideanMST(List<Node> nodes) {
+    /**
+     * Lower bound on the distance of any leg from {@code from} to {@code to}:
+     * the network distance when a distance oracle is installed, the
+     * straight-line distance otherwise.
+     */
+    private double lowerBound(Node from, Node to) {
+        DistanceOracle oracle = Graph.getDistanceOracle();
+        return oracle == null ? from.euclidean_distance(to) : oracle.distance(from.getNodeID(), to.getNodeID());
+    }
+
+    /**
+     * Minimum spanning tree over the nodes, with each pair weighted by the
+     * cheaper direction of {@link #lowerBound(Node, Node)}.
+     */
+    private double spanningTreeBound(List<Node> nodes) {
         if (nodes.size() <= 1) {
             return 0.0;
         }
@@ -245,7 +272,7 @@ public class ExactAlgorithmSolver {
 
         for (Node node : nodes) {
             if (node.getNodeID() != startId) {
-                double cost = start.euclidean_distance(node);
+                double cost = Math.min(lowerBound(start, node), lowerBound(node, start));
                 bestEdge.put(node.getNodeID(), cost);
                 queue.add(node.getNodeID());
             }
@@ -267,7 +294,7 @@ public class ExactAlgorithmSolver {
                 if (visited.contains(nodeId)) {
                     continue;
                 }
-                double candidate = nextNode.euclidean_distance(node);
+                double candidate = Math.min(lowerBound(nextNode, node), lowerBound(node, nextNode));
                 if (!bestEdge.containsKey(nodeId) || candidate < bestEdge.get(nodeId)) {
                     bestEdge.put(nodeId, candidate);
                     queue.add(nodeId);
@@ -276,43 +303,4 @@ public class ExactAlgorithmSolver {
         }
         return total;
     }
-
-    private LegResult shortestLeg(int src, int dest, double departureTime) {
-        Map<Integer, Double> gCost = new HashMap<>();
-        Map<Integer, Double> arrivalTime = new HashMap<>();
-        Map<Integer, Double> fScore = new HashMap<>();
-
-        PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.comparingDouble(fScore::get));
-
-        gCost.put(src, 0.0);
-        arrivalTime.put(src, departureTime);
-        fScore.put(src, Graph.get_node(src).euclidean_distance(Graph.get_node(dest)));
-        queue.add(src);
-
-        while (!queue.isEmpty()) {
-            int current = queue.poll();
-            if (current == dest) {
-                return new LegResult(gCost.get(dest), arrivalTime.get(dest));
-            }
-
-            Node currentNode = Graph.get_node(current);
-            for (Entry<Integer, Edge> entry : currentNode.get_outgoing_edges().entrySet()) {
-                Edge edge = entry.getValue();
-                int child = edge.get_destination();
-
-                double tentativeDistance = gCost.get(current) + edge.getDistance();
-                double tentativeArrival = edge.get_arrival_time(arrivalTime.get(current));
-
-                boolean betterDistance = !gCost.containsKey(child) || tentativeDistance < gCost.get(child);
-                if (betterDistance) {
-                    gCost.put(child, tentativeDistance);
-                    arrivalTime.put(child, tentativeArrival);
-                    double priority = tentativeDistance + Graph.get_node(child).euclidean_distance(Graph.get_node(dest));
-                    fScore.put(child, priority);
-                    queue.add(child);
-                }
-            }
-        }
-        return null;
-    }
 }
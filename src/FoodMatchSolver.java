@@ -27,16 +27,6 @@ public class FoodMatchSolver {
         }
     }
 
-    private static class LegResult {
-        final double distance;
-        final double arrivalTime;
-
-        LegResult(double distance, double arrivalTime) {
-            this.distance = distance;
-            this.arrivalTime = arrivalTime;
-        }
-    }
-
     private static class MoveCandidate {
         final int serviceId;
         final Point target;
@@ -55,6 +45,8 @@ public class FoodMatchSolver {
 
     private final Query query;
     private final Map<Integer, ServiceState> serviceStates = new HashMap<>();
+    private LegObjective legObjective = LegObjective.SHORTEST;
+    private DepotReturnProfile depotReturn;
 
     public FoodMatchSolver(Query query) {
         this.query = query;
@@ -63,8 +55,16 @@ public class FoodMatchSolver {
         }
     }
 
+    /**
+     * Select how individual legs are routed; defaults to {@link LegObjective#SHORTEST}.
+     */
+    public void setLegObjective(LegObjective objective) {
+        this.legObjective = objective;
+    }
+
     public List<RoutePlan> solve() {
         System.out.println("Starting FoodMatch solver for query " + query.getID());
+        depotReturn = new DepotReturnProfile(query, legObjective);
         List<Point> route = new ArrayList<>();
         route.add(query.getDepot());
 
@@ -102,8 +102,7 @@ public class FoodMatchSolver {
             currentPoint = best.target;
         }
 
-        LegResult legToDepot = shortestLeg(currentPoint.getNode().getNodeID(), query.getDepot().getNode().getNodeID(),
-                currentTime);
+        LegResult legToDepot = depotReturn.leg(currentPoint.getNode().getNodeID(), currentTime);
         if (legToDepot != null) {
             currentTime = Math.max(legToDepot.arrivalTime, query.getDepot().getTimeWindow().getStartTime());
             totalDistance += legToDepot.distance;
@@ -116,21 +115,39 @@ public class FoodMatchSolver {
         return result;
     }
 
+    /**
+     * Rank every pending pickup and undelivered drop-off reachable from the
+     * current point. All candidate legs share the same origin and departure
+     * time, so they are routed together with one one-to-many search.
+     */
     private MoveCandidate selectNextMove(Point currentPoint, double currentTime, int currentLoad) {
         PriorityQueue<MoveCandidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(c -> c.score));
 
+        Map<Integer, Double> targets = new HashMap<>();
+        for (ServiceState state : serviceStates.values()) {
+            Service service = state.service;
+            if (!state.picked && currentLoad + service.getServiceQuantity() <= query.getCapacity()) {
+                addTarget(targets, service.getStartPoint());
+            }
+            if (state.picked && !state.delivered) {
+                addTarget(targets, service.getEndPoint());
+            }
+        }
+        Map<Integer, LegResult> legs = LegSearch.boundedLegs(legObjective, currentPoint.getNode().getNodeID(), targets,
+                currentTime);
+
         for (Entry<Integer, ServiceState> entry : serviceStates.entrySet()) {
             int id = entry.getKey();
             ServiceState state = entry.getValue();
             Service service = state.service;
 
             if (!state.picked) {
-                evaluateCandidate(currentPoint, currentTime, currentLoad, candidates, id, service.getStartPoint(), true,
+                evaluateCandidate(legs, currentLoad, candidates, id, service.getStartPoint(), true,
                         service.getServiceQuantity());
             }
 
             if (state.picked && !state.delivered) {
-                evaluateCandidate(currentPoint, currentTime, currentLoad, candidates, id, service.getEndPoint(), false,
+                evaluateCandidate(legs, currentLoad, candidates, id, service.getEndPoint(), false,
                         service.getServiceQuantity());
             }
         }
@@ -138,10 +155,20 @@ public class FoodMatchSolver {
         return candidates.poll();
     }
 
-    private void evaluateCandidate(Point currentPoint, double currentTime, int currentLoad,
+    /**
+     * Register {@code target} as a search target. Arriving after its window or
+     * after the end of the working hours rejects the move, so the search may
+     * give up on it once that is certain.
+     */
+    private void addTarget(Map<Integer, Double> targets, Point target) {
+        double latestArrival = Math.min(target.getTimeWindow().getEndTime(), query.getQueryEndTime());
+        targets.merge(target.getNode().getNodeID(), latestArrival, Math::max);
+    }
+
+    private void evaluateCandidate(Map<Integer, LegResult> legs, int currentLoad,
             PriorityQueue<MoveCandidate> candidates, int serviceId, Point target, boolean pickup, int quantity) {
 
-        LegResult leg = shortestLeg(currentPoint.getNode().getNodeID(), target.getNode().getNodeID(), currentTime);
+        LegResult leg = legs.get(target.getNode().getNodeID());
         if (leg == null) {
             return;
         }
@@ -175,43 +202,4 @@ public class FoodMatchSolver {
         }
         return true;
     }
-
-    private LegResult shortestLeg(int src, int dest, double departureTime) {
-        Map<Integer, Double> gCost = new HashMap<>();
-        Map<Integer, Double> arrivalTime = new HashMap<>();
-        Map<Integer, Double> fScore = new HashMap<>();
-
-        PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.comparingDouble(fScore::get));
-
-        gCost.put(src, 0.0);
-        arrivalTime.put(src, departureTime);
-        fScore.put(src, Graph.get_node(src).euclidean_distance(Graph.get_node(dest)));
-        queue.add(src);
-
-        while (!queue.isEmpty()) {
-            int current = queue.poll();
-            if (current == dest) {
-                return new LegResult(gCost.get(dest), arrivalTime.get(dest));
-            }
-
-            Node node = Graph.get_node(current);
-            for (Entry<Integer, Edge> edgeEntry : node.get_outgoing_edges().entrySet()) {
-                Edge edge = edgeEntry.getValue();
-                int child = edge.get_destination();
-
-                double tentativeArrival = edge.get_arrival_time(arrivalTime.get(current));
-                double tentativeDistance = gCost.get(current) + edge.getDistance();
-
-                if (!gCost.containsKey(child) || tentativeDistance < gCost.get(child)) {
-                    gCost.put(child, tentativeDistance);
-                    arrivalTime.put(child, tentativeArrival);
-                    fScore.put(child, tentativeDistance + Graph.get_node(child).euclidean_distance(Graph.get_node(dest)));
-                    queue.add(child);
-                }
-            }
-        }
-
-        return null;
-    }
 }
-
@@ -18,9 +18,31 @@ class Function {
 		return this.break_points;
 	}
 
-	public boolean inInterval(int departure_time) {
+	public boolean inInterval(double departure_time) {
 		if(departure_time>=this.break_points.get(0).getX() && departure_time<=this.break_points.get(this.break_points.size()-1).getX())
 			return true;
 		return false;
 	}
+
+	/**
+	 * Evaluate the piecewise linear function at {@code x} by interpolating between
+	 * the two surrounding breakpoints (located by binary search over the sorted X
+	 * values). {@code x} must lie inside the interval, see {@link #inInterval(double)}.
+	 */
+	public double getValue(double x) {
+		int low = 0;
+		int high = this.break_points.size()-1;
+		while(high-low>1) {
+			int mid = (low+high)/2;
+			if(this.break_points.get(mid).getX()<=x)
+				low = mid;
+			else
+				high = mid;
+		}
+		BreakPoint left = this.break_points.get(low);
+		BreakPoint right = this.break_points.get(high);
+		if(right.getX()==left.getX())
+			return left.getY();
+		return left.getY() + (right.getY()-left.getY())*(x-left.getX())/(right.getX()-left.getX());
+	}
 }
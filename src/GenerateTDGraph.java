@@ -31,6 +31,7 @@ class GenerateTDGraph {
                 System.out.println("Setting vertex count and beginning graph extraction.");
                 Graph.set_vertex_count(n);
                 extract_nodes(directory);
+                Graph.buildSpatialIndex();
                 extract_edges(directory);
                 System.out.println("Graph extraction complete with " + Graph.getNodeCount() + " nodes.");
         }
@@ -1,4 +1,6 @@
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,6 +15,10 @@ class Graph {
         private static int n_vertexes;
         private static final Map<Integer, Node> adjacency_list = new HashMap<Integer, Node>();
         private static double[] timeSeries;
+        private static double minTravelTimePerDistance = -1;
+        private static SpatialIndex spatialIndex;
+        private static HubLabels hubLabels;
+        private static OverlayGraph overlay;
 
         /**
          * @return number of vertices declared for the current graph
@@ -79,4 +85,92 @@ class Graph {
         public static Node get_node(int node_id){
                 return adjacency_list.get(node_id);
         }
+
+        public static Collection<Node> getNodes() {
+                return Collections.unmodifiableCollection(adjacency_list.values());
+        }
+
+        /**
+         * Build the k-d tree over node coordinates. Called once the nodes are loaded;
+         * the index is static, so nodes added afterwards are not covered.
+         */
+        public static void buildSpatialIndex() {
+                spatialIndex = SpatialIndex.fromNodes(adjacency_list.values());
+                System.out.println("Built spatial index over " + spatialIndex.size() + " nodes.");
+        }
+
+        public static SpatialIndex getSpatialIndex() {
+                return spatialIndex;
+        }
+
+        /**
+         * Install hub labels for static distance queries, or {@code null} to route
+         * distance legs with plain searches again.
+         */
+        public static void setHubLabels(HubLabels labels) {
+                hubLabels = labels;
+        }
+
+        public static HubLabels getHubLabels() {
+                return hubLabels;
+        }
+
+        /**
+         * Install a multilevel overlay, or {@code null} to remove it. It serves
+         * distance queries once it has been customized, and fastest legs once it
+         * has been customized with travel times.
+         */
+        public static void setOverlay(OverlayGraph graph) {
+                overlay = graph;
+        }
+
+        public static OverlayGraph getOverlay() {
+                return overlay;
+        }
+
+        /**
+         * @return hub labels if installed, otherwise a distance-customized overlay,
+         *         otherwise {@code null}
+         */
+        public static DistanceOracle getDistanceOracle() {
+                if (hubLabels != null) {
+                        return hubLabels;
+                }
+                OverlayGraph current = overlay;
+                return current != null && current.isCustomized() ? current : null;
+        }
+
+        /**
+         * Snap a free coordinate to the closest graph node.
+         *
+         * @return the closest node, or {@code null} if the spatial index has not been built
+         */
+        public static Node nearestNode(double latitude, double longitude) {
+                if (spatialIndex == null) {
+                        return null;
+                }
+                return get_node(spatialIndex.nearest(latitude, longitude));
+        }
+
+        /**
+         * Smallest ratio of travel time to distance over every edge and every
+         * entry of its time profile. Multiplied with the Euclidean distance
+         * between two nodes it gives a lower bound on the travel time between
+         * them at any departure time, because edge distances are Euclidean.
+         * Computed on first use, once the graph is loaded.
+         */
+        public static synchronized double getMinTravelTimePerDistance() {
+                if (minTravelTimePerDistance < 0) {
+                        double best = Double.MAX_VALUE;
+                        for (Node node : adjacency_list.values()) {
+                                for (Edge edge : node.get_outgoing_edges().values()) {
+                                        if (edge.getDistance() > 0) {
+                                                best = Math.min(best, edge.getMinTravelCost() / edge.getDistance());
+                                        }
+                                }
+                        }
+                        minTravelTimePerDistance = best == Double.MAX_VALUE ? 0 : best;
+                }
+                return minTravelTimePerDistance;
+        }
 }
@@ -0,0 +1,499 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Hub labels for static network distances. Every node keeps an out-label
+ * (hubs it can reach, with the distance to each) and an in-label (hubs that
+ * reach it); the distance from {@code s} to {@code t} is the smallest
+ * {@code out(s)[h] + in(t)[h]} over the hubs the two labels share, found by
+ * merging the labels, which are sorted by hub rank.
+ *
+ * <p>Labels are built with pruned landmark labeling: nodes are processed from
+ * most to least important, and the forward and backward Dijkstra from each
+ * node stops wherever the labels built so far already give the distance.
+ * Importance is estimated by how many nodes lie below each node in a sample of
+ * shortest-path trees, which ranks the nodes of long, frequently shared routes
+ * first.</p>
+ *
+ * <p>The labels are stored in flat arrays and can be written to and read from
+ * a compact binary file: hub ranks are delta-encoded as variable-length
+ * integers, distances are kept as doubles so queries match the searches.</p>
+ */
+class HubLabels implements DistanceOracle {
+
+    private static final int MAGIC = 0x48554231; // "HUB1"
+    private static final int SAMPLE_TREES = 16;
+    private static final double PATH_TOLERANCE = 1e-9;
+
+    private final int[] nodeIds;
+    private final Map<Integer, Integer> indexOf;
+    private final int[] outOffsets;
+    private final int[] outHubs;
+    private final double[] outDistances;
+    private final int[] inOffsets;
+    private final int[] inHubs;
+    private final double[] inDistances;
+
+    private HubLabels(int[] nodeIds, int[] outOffsets, int[] outHubs, double[] outDistances, int[] inOffsets,
+            int[] inHubs, double[] inDistances) {
+        this.nodeIds = nodeIds;
+        this.indexOf = new HashMap<>(nodeIds.length * 2);
+        for (int i = 0; i < nodeIds.length; i++) {
+            this.indexOf.put(nodeIds[i], i);
+        }
+        this.outOffsets = outOffsets;
+        this.outHubs = outHubs;
+        this.outDistances = outDistances;
+        this.inOffsets = inOffsets;
+        this.inHubs = inHubs;
+        this.inDistances = inDistances;
+    }
+
+    /**
+     * Read the labels from {@code file} if it exists, otherwise build them over
+     * the loaded {@link Graph} and write them there for the next run.
+     */
+    static HubLabels loadOrBuild(File file) throws IOException {
+        if (file.exists()) {
+            HubLabels labels = read(file);
+            if (labels.nodeIds.length == Graph.getNodeCount()) {
+                System.out.println("Loaded hub labels from " + file + ".");
+                return labels;
+            }
+            System.out.println("Hub labels in " + file + " do not match the graph; rebuilding.");
+        }
+
+        HubLabels labels = build();
+        labels.write(file);
+        System.out.println("Wrote hub labels to " + file + ".");
+        return labels;
+    }
+
+    @Override
+    public double distance(int src, int dest) {
+        Integer s = this.indexOf.get(src);
+        Integer t = this.indexOf.get(dest);
+        if (s == null || t == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return distanceByIndex(s, t);
+    }
+
+    /**
+     * Unpack a shortest path by walking from {@code src} along edges that keep
+     * the remaining label distance tight.
+     */
+    @Override
+    public List<Integer> path(int src, int dest) {
+        double remaining = distance(src, dest);
+        if (Double.isInfinite(remaining)) {
+            return null;
+        }
+
+        List<Integer> path = new ArrayList<>();
+        path.add(src);
+        int current = src;
+        while (current != dest) {
+            int next = -1;
+            double nextRemaining = 0;
+            for (Edge edge : Graph.get_node(current).get_outgoing_edges().values()) {
+                double rest = distance(edge.get_destination(), dest);
+                if (Math.abs(edge.getDistance() + rest - remaining) <= PATH_TOLERANCE * Math.max(1, remaining)) {
+                    next = edge.get_destination();
+                    nextRemaining = rest;
+                    break;
+                }
+            }
+            if (next == -1) {
+                return null; // labels out of sync with the graph
+            }
+            path.add(next);
+            current = next;
+            remaining = nextRemaining;
+        }
+        return path;
+    }
+
+    int size() {
+        return this.nodeIds.length;
+    }
+
+    /**
+     * @return average number of hubs per label, over both directions
+     */
+    double averageLabelSize() {
+        return this.nodeIds.length == 0 ? 0 : (this.outHubs.length + this.inHubs.length) / (2.0 * this.nodeIds.length);
+    }
+
+    private double distanceByIndex(int s, int t) {
+        double best = Double.POSITIVE_INFINITY;
+        int i = this.outOffsets[s];
+        int j = this.inOffsets[t];
+        int outEnd = this.outOffsets[s + 1];
+        int inEnd = this.inOffsets[t + 1];
+        while (i < outEnd && j < inEnd) {
+            int outHub = this.outHubs[i];
+            int inHub = this.inHubs[j];
+            if (outHub == inHub) {
+                best = Math.min(best, this.outDistances[i++] + this.inDistances[j++]);
+            } else if (outHub < inHub) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Build the labels over every node of the loaded {@link Graph}.
+     */
+    static HubLabels build() {
+        long start = System.currentTimeMillis();
+        List<Integer> ids = new ArrayList<>();
+        for (Node node : Graph.getNodes()) {
+            ids.add(node.getNodeID());
+        }
+        Collections.sort(ids);
+        int n = ids.size();
+        int[] nodeIds = new int[n];
+        Map<Integer, Integer> indexOf = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            nodeIds[i] = ids.get(i);
+            indexOf.put(nodeIds[i], i);
+        }
+
+        Adjacency forward = new Adjacency(nodeIds, indexOf, true);
+        Adjacency backward = new Adjacency(nodeIds, indexOf, false);
+        int[] order = importanceOrder(forward, n);
+
+        LabelBuilder[] out = new LabelBuilder[n];
+        LabelBuilder[] in = new LabelBuilder[n];
+        for (int i = 0; i < n; i++) {
+            out[i] = new LabelBuilder();
+            in[i] = new LabelBuilder();
+        }
+
+        double[] hubDistance = new double[n];
+        Arrays.fill(hubDistance, Double.POSITIVE_INFINITY);
+        double[] distance = new double[n];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        for (int rank = 0; rank < n; rank++) {
+            int hub = order[rank];
+            // hubs reached from the hub prune the forward search, hubs reaching it the backward one
+            prunedSearch(rank, hub, forward, out[hub], in, hubDistance, distance);
+            prunedSearch(rank, hub, backward, in[hub], out, hubDistance, distance);
+        }
+
+        int[] outOffsets = new int[n + 1];
+        int[] inOffsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            outOffsets[i + 1] = outOffsets[i] + out[i].size;
+            inOffsets[i + 1] = inOffsets[i] + in[i].size;
+        }
+        int[] outHubs = new int[outOffsets[n]];
+        double[] outDistances = new double[outOffsets[n]];
+        int[] inHubs = new int[inOffsets[n]];
+        double[] inDistances = new double[inOffsets[n]];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(out[i].hubs, 0, outHubs, outOffsets[i], out[i].size);
+            System.arraycopy(out[i].distances, 0, outDistances, outOffsets[i], out[i].size);
+            System.arraycopy(in[i].hubs, 0, inHubs, inOffsets[i], in[i].size);
+            System.arraycopy(in[i].distances, 0, inDistances, inOffsets[i], in[i].size);
+        }
+
+        HubLabels labels = new HubLabels(nodeIds, outOffsets, outHubs, outDistances, inOffsets, inHubs, inDistances);
+        System.out.println("Built hub labels for " + n + " nodes in " + (System.currentTimeMillis() - start)
+                + " ms, average label size " + String.format("%.1f", labels.averageLabelSize()) + ".");
+        return labels;
+    }
+
+    /**
+     * Dijkstra from {@code hub} that adds {@code rank} to the labels of every
+     * node whose distance the existing labels cannot already certify. For the
+     * forward search the reached nodes get in-label entries and
+     * {@code hubLabel} is the hub's out-label; the backward search mirrors it.
+     */
+    private static void prunedSearch(int rank, int hub, Adjacency adjacency, LabelBuilder hubLabel,
+            LabelBuilder[] reachedLabels, double[] hubDistance, double[] distance) {
+        for (int i = 0; i < hubLabel.size; i++) {
+            hubDistance[hubLabel.hubs[i]] = hubLabel.distances[i];
+        }
+
+        List<Integer> touched = new ArrayList<>();
+        PriorityQueue<Priority> queue = new PriorityQueue<>((a, b) -> Double.compare(a.getPriority(), b.getPriority()));
+        distance[hub] = 0;
+        touched.add(hub);
+        queue.add(new Priority(hub, 0));
+        while (!queue.isEmpty()) {
+            Priority entry = queue.poll();
+            int current = entry.getNode();
+            double currentDistance = entry.getPriority();
+            if (currentDistance > distance[current]) {
+                continue; // stale queue entry
+            }
+
+            LabelBuilder label = reachedLabels[current];
+            boolean covered = false;
+            for (int i = 0; i < label.size && !covered; i++) {
+                covered = hubDistance[label.hubs[i]] + label.distances[i] <= currentDistance;
+            }
+            if (covered) {
+                continue;
+            }
+            label.add(rank, currentDistance);
+
+            for (int e = adjacency.offsets[current]; e < adjacency.offsets[current + 1]; e++) {
+                int next = adjacency.targets[e];
+                double tentative = currentDistance + adjacency.weights[e];
+                if (tentative < distance[next]) {
+                    if (Double.isInfinite(distance[next])) {
+                        touched.add(next);
+                    }
+                    distance[next] = tentative;
+                    queue.add(new Priority(next, tentative));
+                }
+            }
+        }
+
+        for (int node : touched) {
+            distance[node] = Double.POSITIVE_INFINITY;
+        }
+        for (int i = 0; i < hubLabel.size; i++) {
+            hubDistance[hubLabel.hubs[i]] = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Order nodes by the total size of their subtrees over a sample of
+     * shortest-path trees, breaking ties by degree and then by index.
+     */
+    private static int[] importanceOrder(Adjacency forward, int n) {
+        long[] importance = new long[n];
+        double[] distance = new double[n];
+        int[] parent = new int[n];
+        int[] settledOrder = new int[n];
+        int[] subtree = new int[n];
+        int samples = Math.min(n, SAMPLE_TREES);
+        for (int sample = 0; sample < samples; sample++) {
+            int root = (int) ((long) sample * n / samples);
+            Arrays.fill(distance, Double.POSITIVE_INFINITY);
+            Arrays.fill(parent, -1);
+            int settled = 0;
+            PriorityQueue<Priority> queue = new PriorityQueue<>((a, b) -> Double.compare(a.getPriority(), b.getPriority()));
+            distance[root] = 0;
+            queue.add(new Priority(root, 0));
+            while (!queue.isEmpty()) {
+                Priority entry = queue.poll();
+                int current = entry.getNode();
+                if (entry.getPriority() > distance[current]) {
+                    continue;
+                }
+                settledOrder[settled++] = current;
+                for (int e = forward.offsets[current]; e < forward.offsets[current + 1]; e++) {
+                    int next = forward.targets[e];
+                    double tentative = distance[current] + forward.weights[e];
+                    if (tentative < distance[next]) {
+                        distance[next] = tentative;
+                        parent[next] = current;
+                        queue.add(new Priority(next, tentative));
+                    }
+                }
+            }
+
+            for (int i = settled - 1; i >= 0; i--) {
+                int node = settledOrder[i];
+                subtree[node] += 1;
+                importance[node] += subtree[node];
+                if (parent[node] >= 0) {
+                    subtree[parent[node]] += subtree[node];
+                }
+            }
+            for (int i = 0; i < settled; i++) {
+                subtree[settledOrder[i]] = 0;
+            }
+        }
+
+        Integer[] nodes = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            nodes[i] = i;
+        }
+        Arrays.sort(nodes, (a, b) -> {
+            int byImportance = Long.compare(importance[b], importance[a]);
+            if (byImportance != 0) {
+                return byImportance;
+            }
+            int byDegree = Integer.compare(forward.degree(b), forward.degree(a));
+            return byDegree != 0 ? byDegree : Integer.compare(a, b);
+        });
+
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = nodes[i];
+        }
+        return order;
+    }
+
+    void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(this.nodeIds.length);
+            for (int id : this.nodeIds) {
+                writeVarInt(out, id);
+            }
+            writeLabels(out, this.outOffsets, this.outHubs, this.outDistances);
+            writeLabels(out, this.inOffsets, this.inHubs, this.inDistances);
+        }
+    }
+
+    static HubLabels read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a hub label file: " + file);
+            }
+            int n = in.readInt();
+            int[] nodeIds = new int[n];
+            for (int i = 0; i < n; i++) {
+                nodeIds[i] = readVarInt(in);
+            }
+
+            int[] outOffsets = new int[n + 1];
+            int[] outHubs = readHubs(in, outOffsets);
+            double[] outDistances = readDistances(in, outOffsets[n]);
+            int[] inOffsets = new int[n + 1];
+            int[] inHubs = readHubs(in, inOffsets);
+            double[] inDistances = readDistances(in, inOffsets[n]);
+            return new HubLabels(nodeIds, outOffsets, outHubs, outDistances, inOffsets, inHubs, inDistances);
+        }
+    }
+
+    /**
+     * Per node: the label size and the delta-encoded hub ranks as
+     * variable-length integers; all distances follow as one block of doubles.
+     */
+    private static void writeLabels(DataOutputStream out, int[] offsets, int[] hubs, double[] distances)
+            throws IOException {
+        for (int i = 0; i + 1 < offsets.length; i++) {
+            writeVarInt(out, offsets[i + 1] - offsets[i]);
+            int previous = 0;
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                writeVarInt(out, hubs[j] - previous);
+                previous = hubs[j];
+            }
+        }
+        for (double distance : distances) {
+            out.writeDouble(distance);
+        }
+    }
+
+    private static int[] readHubs(DataInputStream in, int[] offsets) throws IOException {
+        int n = offsets.length - 1;
+        int[] hubs = new int[16];
+        for (int i = 0; i < n; i++) {
+            int size = readVarInt(in);
+            offsets[i + 1] = offsets[i] + size;
+            if (offsets[i + 1] > hubs.length) {
+                hubs = Arrays.copyOf(hubs, Math.max(offsets[i + 1], 2 * hubs.length));
+            }
+            int previous = 0;
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                previous += readVarInt(in);
+                hubs[j] = previous;
+            }
+        }
+        return Arrays.copyOf(hubs, offsets[n]);
+    }
+
+    private static double[] readDistances(DataInputStream in, int count) throws IOException {
+        double[] distances = new double[count];
+        for (int i = 0; i < count; i++) {
+            distances[i] = in.readDouble();
+        }
+        return distances;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Compressed adjacency over dense node indices, in either direction.
+     */
+    private static final class Adjacency {
+        final int[] offsets;
+        final int[] targets;
+        final double[] weights;
+
+        Adjacency(int[] nodeIds, Map<Integer, Integer> indexOf, boolean forward) {
+            int n = nodeIds.length;
+            this.offsets = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                Node node = Graph.get_node(nodeIds[i]);
+                int degree = forward ? node.get_outgoing_edges().size() : node.get_incoming_edges().size();
+                this.offsets[i + 1] = this.offsets[i] + degree;
+            }
+            this.targets = new int[this.offsets[n]];
+            this.weights = new double[this.offsets[n]];
+            for (int i = 0; i < n; i++) {
+                Node node = Graph.get_node(nodeIds[i]);
+                int e = this.offsets[i];
+                for (Edge edge : (forward ? node.get_outgoing_edges() : node.get_incoming_edges()).values()) {
+                    this.targets[e] = indexOf.get(forward ? edge.get_destination() : edge.get_source());
+                    this.weights[e] = edge.getDistance();
+                    e++;
+                }
+            }
+        }
+
+        int degree(int node) {
+            return this.offsets[node + 1] - this.offsets[node];
+        }
+    }
+
+    /**
+     * Growable label used while building; hubs arrive in increasing rank.
+     */
+    private static final class LabelBuilder {
+        int[] hubs = new int[4];
+        double[] distances = new double[4];
+        int size;
+
+        void add(int hub, double distance) {
+            if (this.size == this.hubs.length) {
+                this.hubs = Arrays.copyOf(this.hubs, 2 * this.size);
+                this.distances = Arrays.copyOf(this.distances, 2 * this.size);
+            }
+            this.hubs[this.size] = hub;
+            this.distances[this.size] = distance;
+            this.size++;
+        }
+    }
+}
@@ -3,8 +3,6 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.PriorityQueue;
 
 /**
  * Greedy insertion heuristic inspired by Dessouky & Hu (2021) for dynamic
@@ -15,16 +13,6 @@ import java.util.PriorityQueue;
  */
 public class InsertionHeuristicSolver {
 
-        private static class LegResult {
-                final double distance;
-                final double arrivalTime;
-
-                LegResult(double distance, double arrivalTime) {
-                        this.distance = distance;
-                        this.arrivalTime = arrivalTime;
-                }
-        }
-
         private static class RouteEvaluation {
                 final List<Point> route;
                 final double distance;
@@ -42,13 +30,26 @@ public class InsertionHeuristicSolver {
         }
 
         private final Query query;
+        private LegProfileCache legProfiles;
+        private LegObjective legObjective = LegObjective.SHORTEST;
+        private DepotReturnProfile depotReturn;
 
         public InsertionHeuristicSolver(Query query) {
                 this.query = query;
+                this.legProfiles = new LegProfileCache(query);
+        }
+
+        /**
+         * Select how individual legs are routed; defaults to {@link LegObjective#SHORTEST}.
+         */
+        public void setLegObjective(LegObjective objective) {
+                this.legProfiles = new LegProfileCache(query, objective);
+                this.legObjective = objective;
         }
 
         public List<RoutePlan> solve() {
                 System.out.println("Starting insertion heuristic solver for query " + query.getID());
+                depotReturn = new DepotReturnProfile(query, legObjective);
                 List<Point> currentRoute = new ArrayList<Point>();
                 currentRoute.add(query.getDepot());
                 currentRoute.add(query.getDepot());
@@ -119,8 +120,11 @@ public class InsertionHeuristicSolver {
                         Point point = sequence.get(i);
                         if (i > 0) {
                                 Point previous = sequence.get(i - 1);
-                                LegResult leg = shortestLeg(previous.getNode().getNodeID(), point.getNode().getNodeID(),
-                                                currentTime);
+                                boolean returnLeg = i == sequence.size() - 1 && point == query.getDepot();
+                                LegResult leg = returnLeg
+                                                ? depotReturn.leg(previous.getNode().getNodeID(), currentTime)
+                                                : legProfiles.leg(previous.getNode().getNodeID(), point.getNode().getNodeID(),
+                                                                currentTime);
                                 if (leg == null) {
                                         return new RouteEvaluation(sequence, Double.POSITIVE_INFINITY, luCost,
                                                         processedRequests, false);
@@ -135,6 +139,11 @@ public class InsertionHeuristicSolver {
                                 return new RouteEvaluation(sequence, Double.POSITIVE_INFINITY, luCost, processedRequests,
                                                 false);
                         }
+                        if (currentTime > depotReturn.latestDeparture(point.getNode().getNodeID())) {
+                                // too late to get back to the depot, whatever follows
+                                return new RouteEvaluation(sequence, Double.POSITIVE_INFINITY, luCost, processedRequests,
+                                                false);
+                        }
 
                         if (point.getType().equals("Source")) {
                                 int quantity = point.getServiceObject().getServiceQuantity();
@@ -165,55 +174,4 @@ public class InsertionHeuristicSolver {
 
                 return new RouteEvaluation(sequence, totalDistance, luCost, processedRequests, true);
         }
-
-        private LegResult shortestLeg(int src, int dest, double departureTime) {
-                Map<Integer, Double> gCost = new HashMap<Integer, Double>();
-                Map<Integer, Double> arrivalTime = new HashMap<Integer, Double>();
-                Map<Integer, Double> fScore = new HashMap<Integer, Double>();
-
-                PriorityQueue<Integer> queue = new PriorityQueue<Integer>(1, new Comparator<Integer>() {
-                        @Override
-                        public int compare(Integer i, Integer j) {
-                                if (fScore.get(i) > fScore.get(j)) {
-                                        return 1;
-                                } else if (fScore.get(i) < fScore.get(j)) {
-                                        return -1;
-                                } else {
-                                        return 0;
-                                }
-                        }
-                });
-
-                gCost.put(src, 0.0);
-                arrivalTime.put(src, departureTime);
-                fScore.put(src, Graph.get_node(src).euclidean_distance(Graph.get_node(dest)));
-                queue.add(src);
-
-                while (!queue.isEmpty()) {
-                        int current = queue.poll();
-                        if (current == dest) {
-                                return new LegResult(gCost.get(dest), arrivalTime.get(dest));
-                        }
-
-                        Node node = Graph.get_node(current);
-                        for (Entry<Integer, Edge> edgeEntry : node.get_outgoing_edges().entrySet()) {
-                                Edge edge = edgeEntry.getValue();
-                                int child = edge.get_destination();
-
-                                double tentativeArrival = edge.get_arrival_time(arrivalTime.get(current));
-                                double tentativeDistance = gCost.get(current) + edge.getDistance();
-
-                                if (!gCost.containsKey(child) || tentativeDistance < gCost.get(child)) {
-                                        gCost.put(child, tentativeDistance);
-                                        arrivalTime.put(child, tentativeArrival);
-                                        fScore.put(child,
-                                                        tentativeDistance + Graph.get_node(child)
-                                                                        .euclidean_distance(Graph.get_node(dest)));
-                                        queue.add(child);
-                                }
-                        }
-                }
-
-                return null;
-        }
 }
@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Backward time-dependent searches answering "what is the latest time to leave
+ * node X and still reach node Y by time T". Labels are propagated from the
+ * destination over the incoming adjacency with {@link Edge#get_departure_time},
+ * settling nodes in order of decreasing latest departure, so each settled label
+ * is the latest departure over all paths.
+ *
+ * <p>The search is guided towards the sources by subtracting
+ * {@link Graph#getMinTravelTimePerDistance()} times the Euclidean distance to
+ * the closest source, the mirror image of the forward fastest-leg heuristic in
+ * {@link LegSearch}.</p>
+ */
+final class LatestDepartureSearch {
+
+    private LatestDepartureSearch() {
+        // Utility class
+    }
+
+    /**
+     * @return the latest departure from {@code src} reaching {@code dest} by
+     *         {@code latestArrival}, or {@code null} when {@code dest} cannot
+     *         be reached from {@code src}
+     */
+    static Double latestDeparture(int src, int dest, double latestArrival) {
+        return latestDepartures(Collections.singletonList(src), dest, latestArrival).get(src);
+    }
+
+    /**
+     * Latest departures from every node in {@code sources} towards one
+     * destination, computed with a single backward search.
+     *
+     * @return latest departure keyed by source; sources that cannot reach
+     *         {@code dest} are absent
+     */
+    static Map<Integer, Double> latestDepartures(Collection<Integer> sources, int dest, double latestArrival) {
+        Set<Integer> pending = new HashSet<>(sources);
+        if (pending.isEmpty()) {
+            return new HashMap<>();
+        }
+        return search(dest, latestArrival, pending, null);
+    }
+
+    /**
+     * Latest departures from every node that can reach {@code dest}, i.e. the
+     * complete backward search tree rooted at {@code dest}.
+     *
+     * @param parents if not {@code null}, filled with the next node on the
+     *                latest-departure path of every reached node ({@code -1}
+     *                for {@code dest})
+     * @return latest departure keyed by node
+     */
+    static Map<Integer, Double> tree(int dest, double latestArrival, Map<Integer, Integer> parents) {
+        return search(dest, latestArrival, null, parents);
+    }
+
+    private static Map<Integer, Double> search(int dest, double latestArrival, Set<Integer> pending,
+            Map<Integer, Integer> parents) {
+        Map<Integer, Double> departures = new HashMap<>();
+        double rate = Graph.getMinTravelTimePerDistance();
+        Set<Integer> sources = pending == null ? null : new HashSet<>(pending);
+        List<Node> sourceNodes = new ArrayList<>();
+        if (sources != null) {
+            for (int source : sources) {
+                sourceNodes.add(Graph.get_node(source));
+            }
+        }
+
+        Map<Integer, Double> latest = new HashMap<>();
+        Set<Integer> settled = new HashSet<>();
+        // max-heap: the node that can leave latest is settled first
+        PriorityQueue<Priority> queue = new PriorityQueue<>((a, b) -> Double.compare(b.getPriority(), a.getPriority()));
+
+        latest.put(dest, latestArrival);
+        if (parents != null) {
+            parents.put(dest, -1);
+        }
+        queue.add(new Priority(dest, latestArrival - rate * heuristic(Graph.get_node(dest), sourceNodes)));
+
+        while (!queue.isEmpty()) {
+            int current = queue.poll().getNode();
+            if (!settled.add(current)) {
+                continue; // stale queue entry
+            }
+
+            departures.put(current, latest.get(current));
+            if (pending != null && pending.remove(current) && pending.isEmpty()) {
+                break;
+            }
+
+            Node node = Graph.get_node(current);
+            for (Entry<Integer, Edge> edgeEntry : node.get_incoming_edges().entrySet()) {
+                Edge edge = edgeEntry.getValue();
+                int parent = edge.get_source();
+                if (settled.contains(parent)) {
+                    continue;
+                }
+
+                double tentativeDeparture = edge.get_departure_time(latest.get(current));
+                if (!latest.containsKey(parent) || tentativeDeparture > latest.get(parent)) {
+                    latest.put(parent, tentativeDeparture);
+                    if (parents != null) {
+                        parents.put(parent, current);
+                    }
+                    queue.add(new Priority(parent,
+                            tentativeDeparture - rate * heuristic(Graph.get_node(parent), sourceNodes)));
+                }
+            }
+        }
+
+        if (sources != null) {
+            departures.keySet().retainAll(sources);
+        }
+        return departures;
+    }
+
+    private static double heuristic(Node node, List<Node> sources) {
+        double best = sources.isEmpty() ? 0 : Double.MAX_VALUE;
+        for (Node source : sources) {
+            best = Math.min(best, node.euclidean_distance(source));
+        }
+        return best;
+    }
+}
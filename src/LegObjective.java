@@ -0,0 +1,40 @@
+/**
+ * Objective minimised when routing a single leg between two points. Solvers
+ * default to {@link #SHORTEST}; {@link #FASTEST} can be selected from the CLI.
+ */
+enum LegObjective {
+    /**
+     * Distance-optimal path. The arrival time is whatever that path yields for
+     * the requested departure time.
+     */
+    SHORTEST("--shortest-legs"),
+    /**
+     * Earliest-arrival path for the requested departure time, found with a
+     * time-dependent A* over the edge travel-time profiles.
+     */
+    FASTEST("--fastest-legs");
+
+    private final String flag;
+
+    LegObjective(String flag) {
+        this.flag = flag;
+    }
+
+    public String getFlag() {
+        return flag;
+    }
+
+    /**
+     * Maps a command-line argument to the matching objective.
+     *
+     * @return the objective, or {@code null} if the argument is not a leg objective flag
+     */
+    public static LegObjective fromArg(String arg) {
+        for (LegObjective objective : values()) {
+            if (objective.flag.equalsIgnoreCase(arg)) {
+                return objective;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Arrival-time profile of a single leg over a departure interval. The leg is
+ * routed once along its distance-optimal path (distances are static, so the
+ * path does not depend on the departure time) and the piecewise linear arrival
+ * functions of its edges are composed into one {@link Function} mapping
+ * departure time at the source to arrival time at the destination. Evaluating
+ * the leg at another departure time is then a breakpoint lookup instead of a
+ * new search.
+ */
+class LegProfile {
+
+    /**
+     * Edge profiles wrap around at the end of the day, which acts as an extra
+     * breakpoint after the last entry of the time series.
+     */
+    private static final double DAY_END = 24 * 60;
+
+    private final List<Integer> path;
+    private final double distance;
+    private final Function arrivalFunction;
+
+    private LegProfile(List<Integer> path, double distance, Function arrivalFunction) {
+        this.path = Collections.unmodifiableList(path);
+        this.distance = distance;
+        this.arrivalFunction = arrivalFunction;
+    }
+
+    /**
+     * Compute the profile of the leg from {@code src} to {@code dest} for every
+     * departure time in {@code [earliestDeparture, latestDeparture]}.
+     *
+     * @return the profile, or {@code null} when the destination is unreachable
+     */
+    static LegProfile compute(int src, int dest, double earliestDeparture, double latestDeparture) {
+        List<Integer> path = LegSearch.shortestPath(src, dest);
+        return path == null ? null : along(path, earliestDeparture, latestDeparture);
+    }
+
+    /**
+     * Compute the profile of driving the given node sequence for every
+     * departure time in {@code [earliestDeparture, latestDeparture]}.
+     */
+    static LegProfile along(List<Integer> path, double earliestDeparture, double latestDeparture) {
+        List<BreakPoint> breakpoints = new ArrayList<>();
+        breakpoints.add(new BreakPoint(earliestDeparture, earliestDeparture));
+        if (latestDeparture > earliestDeparture) {
+            breakpoints.add(new BreakPoint(latestDeparture, latestDeparture));
+        }
+
+        double distance = 0;
+        for (int i = 1; i < path.size(); i++) {
+            Edge edge = Graph.get_node(path.get(i - 1)).get_outgoing_edges().get(path.get(i));
+            distance += edge.getDistance();
+            breakpoints = composeWithEdge(breakpoints, edge);
+        }
+        return new LegProfile(path, distance, new Function(breakpoints));
+    }
+
+    /**
+     * Compose the current departure-to-arrival function with the arrival
+     * function of the next edge. Between two breakpoints the current function is
+     * linear, so every edge breakpoint reached in between maps back to exactly
+     * one departure time and becomes a new breakpoint of the composition.
+     */
+    private static List<BreakPoint> composeWithEdge(List<BreakPoint> breakpoints, Edge edge) {
+        List<BreakPoint> composed = new ArrayList<>(breakpoints.size() + 4);
+        for (int i = 0; i < breakpoints.size(); i++) {
+            BreakPoint current = breakpoints.get(i);
+            composed.add(new BreakPoint(current.getX(), edge.get_arrival_time(current.getY())));
+            if (i == breakpoints.size() - 1) {
+                break;
+            }
+
+            BreakPoint next = breakpoints.get(i + 1);
+            List<Double> edgeBreakpoints = Graph.getTimeSeries(current.getY(), next.getY());
+            if (current.getY() < DAY_END && DAY_END < next.getY()) {
+                edgeBreakpoints.add(DAY_END);
+            }
+            for (double entryTime : edgeBreakpoints) {
+                double departure = current.getX()
+                        + (entryTime - current.getY()) * (next.getX() - current.getX()) / (next.getY() - current.getY());
+                composed.add(new BreakPoint(departure, edge.get_arrival_time(entryTime)));
+            }
+        }
+        return composed;
+    }
+
+    boolean covers(double departureTime) {
+        return this.arrivalFunction.inInterval(departureTime);
+    }
+
+    double getArrivalTime(double departureTime) {
+        return this.arrivalFunction.getValue(departureTime);
+    }
+
+    /**
+     * @return the leg as if it had been searched at {@code departureTime}, which
+     *         must be covered by the profile
+     */
+    LegResult legAt(double departureTime) {
+        return new LegResult(this.distance, getArrivalTime(departureTime));
+    }
+
+    double getDistance() {
+        return this.distance;
+    }
+
+    List<Integer> getPath() {
+        return this.path;
+    }
+
+    Function getArrivalFunction() {
+        return this.arrivalFunction;
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Store of {@link LegProfile}s for one query. The first request for a leg
+ * computes its arrival profile over the query's working window; later requests
+ * for the same leg, at any departure time inside the window, are answered by
+ * evaluating the stored function. Departures outside the window fall back to a
+ * plain {@link LegSearch}.
+ *
+ * <p>Profiles follow one fixed path, which is only exact for distance-optimal
+ * legs. A cache created for {@link LegObjective#FASTEST} therefore routes every
+ * leg with a fresh earliest-arrival search.</p>
+ */
+class LegProfileCache {
+
+    private final double earliestDeparture;
+    private final double latestDeparture;
+    private final LegObjective objective;
+    private final Map<Long, LegProfile> profiles = new ConcurrentHashMap<>();
+    private final Set<Long> unreachable = ConcurrentHashMap.newKeySet();
+
+    LegProfileCache(double earliestDeparture, double latestDeparture, LegObjective objective) {
+        this.earliestDeparture = earliestDeparture;
+        this.latestDeparture = latestDeparture;
+        this.objective = objective;
+    }
+
+    LegProfileCache(Query query, LegObjective objective) {
+        this(query.getQueryStartTime(), query.getQueryEndTime(), objective);
+    }
+
+    LegProfileCache(Query query) {
+        this(query, LegObjective.SHORTEST);
+    }
+
+    /**
+     * @return the leg from {@code src} to {@code dest} departing at
+     *         {@code departureTime}, or {@code null} when it is unreachable
+     */
+    LegResult leg(int src, int dest, double departureTime) {
+        if (this.objective != LegObjective.SHORTEST
+                || departureTime < this.earliestDeparture || departureTime > this.latestDeparture) {
+            return LegSearch.leg(this.objective, src, dest, departureTime);
+        }
+
+        LegProfile profile = profile(src, dest);
+        return profile == null ? null : profile.legAt(departureTime);
+    }
+
+    /**
+     * @return the profile of the leg, computing it on first use, or
+     *         {@code null} when the destination is unreachable
+     */
+    LegProfile profile(int src, int dest) {
+        long key = key(src, dest);
+        LegProfile profile = this.profiles.get(key);
+        if (profile != null || this.unreachable.contains(key)) {
+            return profile;
+        }
+
+        profile = LegProfile.compute(src, dest, this.earliestDeparture, this.latestDeparture);
+        if (profile == null) {
+            this.unreachable.add(key);
+            return null;
+        }
+        LegProfile existing = this.profiles.putIfAbsent(key, profile);
+        return existing != null ? existing : profile;
+    }
+
+    int size() {
+        return this.profiles.size();
+    }
+
+    private static long key(int src, int dest) {
+        return ((long) src << 32) | (dest & 0xffffffffL);
+    }
+}
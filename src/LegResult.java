@@ -0,0 +1,14 @@
+/**
+ * Outcome of routing a single leg: the travelled distance and the time at which
+ * the destination is reached. Produced by {@link LegSearch} and shared by the
+ * solvers that only need the aggregate values of a leg, not its node sequence.
+ */
+class LegResult {
+    final double distance;
+    final double arrivalTime;
+
+    LegResult(double distance, double arrivalTime) {
+        this.distance = distance;
+        this.arrivalTime = arrivalTime;
+    }
+}
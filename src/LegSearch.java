@@ -0,0 +1,479 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Leg searches over the process-wide {@link Graph} shared by the solvers. Two
+ * objectives are supported (see {@link LegObjective}):
+ * <ul>
+ * <li>shortest legs minimise travelled distance with an A* guided by the
+ * Euclidean distance to the target; the reported arrival time is the one
+ * obtained by driving the distance-optimal path from the departure time;</li>
+ * <li>fastest legs minimise arrival time with a time-dependent A* over the
+ * edge profiles. Its heuristic is the Euclidean distance scaled by
+ * {@link Graph#getMinTravelTimePerDistance()}, which never overestimates the
+ * remaining travel time.</li>
+ * </ul>
+ * The bounded variants take a latest acceptable arrival per target and give up
+ * on a target as soon as no open node can reach it in time.
+ *
+ * <p>Searches can optionally be restricted to a corridor: the ellipse with the
+ * source and target as foci whose nodes {@code v} satisfy
+ * {@code |src v| + |v dest| <= detour * |src dest|}. Any path leaving the
+ * ellipse is longer than {@code detour * |src dest|}, so a leg found inside it
+ * is accepted only if it is no worse than that bound; otherwise the corridor
+ * is widened and the search repeated, ending with an unrestricted search.
+ * Restricted searches therefore return the same legs as unrestricted ones.</p>
+ *
+ * <p>When {@link Graph#getDistanceOracle()} is set (hub labels or a
+ * customized overlay), shortest legs skip the search: the oracle
+ * gives the distance and the path, which is then driven from the departure
+ * time.</p>
+ *
+ * <p>When {@link Graph#getOverlay()} also carries a travel time
+ * customization, fastest legs follow the fastest path of that snapshot of the
+ * profiles, driven from the departure time. Re-customizing the overlay after
+ * the profiles change therefore reroutes fastest legs. Without it they are
+ * answered by the exact time-dependent search.</p>
+ */
+final class LegSearch {
+
+    /** Factor applied to the corridor detour after a restricted search fails. */
+    private static final double CORRIDOR_WIDENING = 2.0;
+
+    /** Beyond this detour the corridor is dropped and the whole graph searched. */
+    private static final double MAX_CORRIDOR_DETOUR = 16.0;
+
+    /** Initial corridor detour factor; 0 disables the restriction. */
+    private static volatile double corridorDetour = 0;
+
+    private LegSearch() {
+        // Utility class
+    }
+
+    /**
+     * Restrict leg searches to a corridor around the straight line between
+     * source and target.
+     *
+     * @param detour allowed detour relative to the straight-line distance (at
+     *               least 1), or 0 to search the whole graph
+     */
+    static void setCorridorDetour(double detour) {
+        if (detour != 0 && detour < 1) {
+            throw new IllegalArgumentException("Corridor detour must be at least 1, got " + detour);
+        }
+        corridorDetour = detour;
+    }
+
+    static double getCorridorDetour() {
+        return corridorDetour;
+    }
+
+    /**
+     * Route a single distance-optimal leg from {@code src} to {@code dest}.
+     *
+     * @return the leg, or {@code null} when the destination is unreachable
+     */
+    static LegResult shortestLeg(int src, int dest, double departureTime) {
+        return leg(LegObjective.SHORTEST, src, dest, departureTime);
+    }
+
+    /**
+     * Route a single earliest-arrival leg from {@code src} to {@code dest}.
+     *
+     * @return the leg, or {@code null} when the destination is unreachable
+     */
+    static LegResult fastestLeg(int src, int dest, double departureTime) {
+        return leg(LegObjective.FASTEST, src, dest, departureTime);
+    }
+
+    static LegResult leg(LegObjective objective, int src, int dest, double departureTime) {
+        return legs(objective, src, Collections.singletonList(dest), departureTime).get(dest);
+    }
+
+    /**
+     * Route a single leg that is only of interest if it reaches {@code dest}
+     * no later than {@code latestArrival}.
+     *
+     * @return the leg, or {@code null} when the destination is unreachable or
+     *         cannot be reached by {@code latestArrival}
+     */
+    static LegResult boundedLeg(LegObjective objective, int src, int dest, double departureTime,
+            double latestArrival) {
+        return boundedLegs(objective, src, Collections.singletonMap(dest, latestArrival), departureTime).get(dest);
+    }
+
+    /**
+     * Route distance-optimal legs from {@code src} to every node in
+     * {@code targets} with a single search.
+     *
+     * @return legs keyed by target node; unreachable targets are absent
+     */
+    static Map<Integer, LegResult> shortestLegs(int src, Collection<Integer> targets, double departureTime) {
+        return legs(LegObjective.SHORTEST, src, targets, departureTime);
+    }
+
+    /**
+     * Route legs from {@code src} to every node in {@code targets} with a single
+     * search. The heuristic is the lower bound towards the closest target; as
+     * the minimum of consistent heuristics it stays consistent, so every settled
+     * node already carries its optimal label and the search can stop as soon as
+     * the last target is settled.
+     *
+     * @return legs keyed by target node; unreachable targets are absent
+     */
+    static Map<Integer, LegResult> legs(LegObjective objective, int src, Collection<Integer> targets,
+            double departureTime) {
+        Map<Integer, Double> deadlines = new HashMap<>();
+        for (int target : targets) {
+            deadlines.put(target, Double.MAX_VALUE);
+        }
+        return route(objective, src, deadlines, departureTime, null);
+    }
+
+    /**
+     * Route legs from {@code src} to every key of {@code latestArrivals} with a
+     * single search, each target bounded by its latest acceptable arrival.
+     *
+     * <p>Arriving at a target is never earlier than the arrival at some open
+     * node plus {@link Graph#getMinTravelTimePerDistance()} times the straight
+     * line distance left. Once the smallest such bound over the open set exceeds
+     * a target's deadline the target is dropped, and the search stops when no
+     * target is left.</p>
+     *
+     * @return legs keyed by target node; targets that are unreachable or
+     *         cannot be reached in time are absent
+     */
+    static Map<Integer, LegResult> boundedLegs(LegObjective objective, int src, Map<Integer, Double> latestArrivals,
+            double departureTime) {
+        return route(objective, src, latestArrivals, departureTime, null);
+    }
+
+    /**
+     * Node sequence of the distance-optimal path from {@code src} to
+     * {@code dest}. Distances are static, so the path does not depend on the
+     * departure time.
+     *
+     * @return the path including both endpoints, or {@code null} when the
+     *         destination is unreachable
+     */
+    static List<Integer> shortestPath(int src, int dest) {
+        return path(LegObjective.SHORTEST, src, dest, 0);
+    }
+
+    /**
+     * Node sequence of the leg from {@code src} to {@code dest} under the given
+     * objective. Only fastest paths depend on {@code departureTime}.
+     *
+     * @return the path including both endpoints, or {@code null} when the
+     *         destination is unreachable
+     */
+    static List<Integer> path(LegObjective objective, int src, int dest, double departureTime) {
+        DistanceOracle oracle = Graph.getDistanceOracle();
+        if (objective == LegObjective.SHORTEST && oracle != null) {
+            List<Integer> path = oracle.path(src, dest);
+            if (path != null || Double.isInfinite(oracle.distance(src, dest))) {
+                return path;
+            }
+        }
+        OverlayGraph overlay = Graph.getOverlay();
+        if (objective == LegObjective.FASTEST && overlay != null && overlay.hasTravelTimes()) {
+            List<Integer> path = overlay.fastestPath(src, dest);
+            if (path != null || Double.isInfinite(overlay.travelTime(src, dest))) {
+                return path;
+            }
+        }
+
+        Map<Integer, Integer> parents = new HashMap<>();
+        if (route(objective, src, Collections.singletonMap(dest, Double.MAX_VALUE), departureTime, parents)
+                .get(dest) == null) {
+            return null;
+        }
+
+        List<Integer> path = new ArrayList<>();
+        for (int node = dest; node != -1; node = parents.get(node)) {
+            path.add(node);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Answer the targets through corridor-restricted searches of growing
+     * width, falling back to an unrestricted search for whatever is left. A
+     * target is settled by a restricted round when its leg costs no more than
+     * any path leaving the corridor could, or when no path leaving the
+     * corridor could meet its deadline.
+     */
+    private static Map<Integer, LegResult> route(LegObjective objective, int src, Map<Integer, Double> deadlines,
+            double departureTime, Map<Integer, Integer> parents) {
+        boolean fastest = objective == LegObjective.FASTEST;
+        double rate = Graph.getMinTravelTimePerDistance();
+        Node source = Graph.get_node(src);
+
+        Map<Integer, LegResult> legs = new HashMap<>();
+        Map<Integer, Double> remaining = new HashMap<>(deadlines);
+        DistanceOracle oracle = Graph.getDistanceOracle();
+        if (objective == LegObjective.SHORTEST && oracle != null) {
+            oracleLegs(oracle, src, remaining, departureTime, legs);
+        }
+        OverlayGraph overlay = Graph.getOverlay();
+        if (fastest && overlay != null && overlay.hasTravelTimes()) {
+            snapshotLegs(overlay, src, remaining, departureTime, legs);
+        }
+
+        double detour = corridorDetour;
+        while (detour != 0 && detour <= MAX_CORRIDOR_DETOUR && !remaining.isEmpty()) {
+            Map<Integer, Double> budgets = new HashMap<>();
+            for (int target : remaining.keySet()) {
+                budgets.put(target, detour * source.euclidean_distance(Graph.get_node(target)));
+            }
+            Map<Integer, LegResult> found = search(objective, src, remaining, departureTime, budgets, parents);
+
+            double nextDetour = detour * CORRIDOR_WIDENING;
+            Iterator<Entry<Integer, Double>> iterator = remaining.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry<Integer, Double> entry = iterator.next();
+                int target = entry.getKey();
+                double budget = budgets.get(target);
+                // cost of any path leaving the corridor exceeds this
+                double outsideCost = fastest ? departureTime + rate * budget : budget;
+                LegResult leg = found.get(target);
+                if (leg != null) {
+                    double cost = fastest ? leg.arrivalTime : leg.distance;
+                    if (cost <= outsideCost) {
+                        legs.put(target, leg);
+                        iterator.remove();
+                    } else {
+                        // widen just enough for the leg found to prove itself
+                        double neededBudget = fastest ? (cost - departureTime) / rate : cost;
+                        nextDetour = Math.max(nextDetour, detour * neededBudget / budget);
+                    }
+                } else if (departureTime + rate * budget >= entry.getValue()) {
+                    iterator.remove(); // no path leaving the corridor arrives in time either
+                }
+            }
+            detour = nextDetour;
+        }
+
+        if (!remaining.isEmpty()) {
+            legs.putAll(search(objective, src, remaining, departureTime, null, parents));
+        }
+        legs.entrySet().removeIf(entry -> entry.getValue().arrivalTime > deadlines.get(entry.getKey()));
+        return legs;
+    }
+
+    /**
+     * Answer shortest legs from a distance oracle. Targets that are unreachable, or
+     * whose distance alone rules out their deadline, are removed from
+     * {@code remaining} without a leg; targets whose path cannot be unpacked
+     * are left there for a search.
+     */
+    private static void oracleLegs(DistanceOracle oracle, int src, Map<Integer, Double> remaining, double departureTime,
+            Map<Integer, LegResult> legs) {
+        double rate = Graph.getMinTravelTimePerDistance();
+        Iterator<Entry<Integer, Double>> iterator = remaining.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<Integer, Double> entry = iterator.next();
+            double distance = oracle.distance(src, entry.getKey());
+            if (Double.isInfinite(distance) || departureTime + rate * distance > entry.getValue()) {
+                iterator.remove();
+                continue;
+            }
+
+            List<Integer> path = oracle.path(src, entry.getKey());
+            if (path != null) {
+                legs.put(entry.getKey(), drive(path, departureTime));
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Answer fastest legs along the paths of the overlay's travel time
+     * snapshot. Targets unreachable in the snapshot are removed from
+     * {@code remaining} without a leg; targets whose path cannot be unpacked
+     * are left there for a search. Deadlines are applied by the caller to the
+     * driven arrival times.
+     */
+    private static void snapshotLegs(OverlayGraph overlay, int src, Map<Integer, Double> remaining,
+            double departureTime, Map<Integer, LegResult> legs) {
+        Iterator<Entry<Integer, Double>> iterator = remaining.entrySet().iterator();
+        while (iterator.hasNext()) {
+            int target = iterator.next().getKey();
+            List<Integer> path = overlay.fastestPath(src, target);
+            if (path != null) {
+                legs.put(target, drive(path, departureTime));
+                iterator.remove();
+            } else if (Double.isInfinite(overlay.travelTime(src, target))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return distance and arrival time of driving {@code path} from
+     *         {@code departureTime}
+     */
+    private static LegResult drive(List<Integer> path, double departureTime) {
+        double distance = 0;
+        double time = departureTime;
+        for (int i = 1; i < path.size(); i++) {
+            Edge edge = Graph.get_node(path.get(i - 1)).get_outgoing_edges().get(path.get(i));
+            distance += edge.getDistance();
+            time = edge.get_arrival_time(time);
+        }
+        return new LegResult(distance, time);
+    }
+
+    /**
+     * One search towards the pending targets, restricted to the union of their
+     * corridors when {@code budgets} is given. Targets dropped on their
+     * deadline are absent from the result; targets settled after their deadline
+     * are still reported.
+     */
+    private static Map<Integer, LegResult> search(LegObjective objective, int src, Map<Integer, Double> deadlines,
+            double departureTime, Map<Integer, Double> budgets, Map<Integer, Integer> parents) {
+        Map<Integer, LegResult> legs = new HashMap<>();
+        boolean fastest = objective == LegObjective.FASTEST;
+        double rate = Graph.getMinTravelTimePerDistance();
+        double heuristicScale = fastest ? rate : 1.0;
+
+        Node source = Graph.get_node(src);
+        Map<Integer, Double> pending = new HashMap<>();
+        double latestDeadline = Double.NEGATIVE_INFINITY;
+        for (Entry<Integer, Double> entry : deadlines.entrySet()) {
+            double deadline = entry.getValue();
+            if (departureTime + rate * source.euclidean_distance(Graph.get_node(entry.getKey())) <= deadline) {
+                pending.put(entry.getKey(), deadline);
+                latestDeadline = Math.max(latestDeadline, deadline);
+            }
+        }
+        if (pending.isEmpty()) {
+            return legs;
+        }
+
+        List<Node> targetNodes = new ArrayList<>(pending.size());
+        for (int target : pending.keySet()) {
+            targetNodes.add(Graph.get_node(target));
+        }
+        boolean bounded = latestDeadline < Double.MAX_VALUE;
+
+        Map<Integer, Double> gCost = new HashMap<>();
+        Map<Integer, Double> arrivalTime = new HashMap<>();
+        Set<Integer> settled = new HashSet<>();
+        PriorityQueue<Priority> queue = new PriorityQueue<>((a, b) -> Double.compare(a.getPriority(), b.getPriority()));
+        // shortest legs order the queue by distance, so the arrival bound over
+        // the open set is kept in a second queue (only when there is a deadline)
+        PriorityQueue<Priority> arrivalBounds = bounded && !fastest
+                ? new PriorityQueue<>((a, b) -> Double.compare(a.getPriority(), b.getPriority()))
+                : null;
+
+        gCost.put(src, 0.0);
+        arrivalTime.put(src, departureTime);
+        if (parents != null) {
+            parents.clear();
+            parents.put(src, -1);
+        }
+        double sourceLabel = fastest ? departureTime : 0.0;
+        queue.add(new Priority(src, sourceLabel + heuristicScale * heuristic(source, targetNodes)));
+        if (arrivalBounds != null) {
+            arrivalBounds.add(new Priority(src, departureTime + rate * heuristic(source, targetNodes)));
+        }
+
+        while (!queue.isEmpty()) {
+            if (bounded) {
+                double bound = fastest ? queue.peek().getPriority() : openArrivalBound(arrivalBounds, settled);
+                if (bound > latestDeadline) {
+                    break; // no pending target can be reached in time
+                }
+                pending.values().removeIf(latest -> bound > latest);
+                latestDeadline = Collections.max(pending.values());
+            }
+
+            int current = queue.poll().getNode();
+            if (!settled.add(current)) {
+                continue; // stale queue entry
+            }
+
+            if (pending.remove(current) != null) {
+                legs.put(current, new LegResult(gCost.get(current), arrivalTime.get(current)));
+                if (pending.isEmpty()) {
+                    break;
+                }
+                latestDeadline = Collections.max(pending.values());
+            }
+
+            Node node = Graph.get_node(current);
+            for (Entry<Integer, Edge> edgeEntry : node.get_outgoing_edges().entrySet()) {
+                Edge edge = edgeEntry.getValue();
+                int child = edge.get_destination();
+                if (settled.contains(child)) {
+                    continue;
+                }
+                if (budgets != null && !insideCorridor(Graph.get_node(child), source, pending.keySet(), budgets)) {
+                    continue;
+                }
+
+                double tentativeDistance = gCost.get(current) + edge.getDistance();
+                double tentativeArrival = edge.get_arrival_time(arrivalTime.get(current));
+                boolean improves = fastest
+                        ? !arrivalTime.containsKey(child) || tentativeArrival < arrivalTime.get(child)
+                        : !gCost.containsKey(child) || tentativeDistance < gCost.get(child);
+                if (improves) {
+                    gCost.put(child, tentativeDistance);
+                    arrivalTime.put(child, tentativeArrival);
+                    if (parents != null) {
+                        parents.put(child, current);
+                    }
+                    double label = fastest ? tentativeArrival : tentativeDistance;
+                    double remaining = heuristic(Graph.get_node(child), targetNodes);
+                    queue.add(new Priority(child, label + heuristicScale * remaining));
+                    if (arrivalBounds != null) {
+                        arrivalBounds.add(new Priority(child, tentativeArrival + rate * remaining));
+                    }
+                }
+            }
+        }
+
+        return legs;
+    }
+
+    /**
+     * Smallest arrival bound among open nodes. Entries of settled nodes are
+     * discarded; outdated entries of open nodes are kept, they only make the
+     * bound more conservative.
+     */
+    private static double openArrivalBound(PriorityQueue<Priority> arrivalBounds, Set<Integer> settled) {
+        while (!arrivalBounds.isEmpty() && settled.contains(arrivalBounds.peek().getNode())) {
+            arrivalBounds.poll();
+        }
+        return arrivalBounds.isEmpty() ? Double.MAX_VALUE : arrivalBounds.peek().getPriority();
+    }
+
+    private static boolean insideCorridor(Node node, Node source, Set<Integer> targets, Map<Integer, Double> budgets) {
+        double fromSource = source.euclidean_distance(node);
+        for (int target : targets) {
+            if (fromSource + node.euclidean_distance(Graph.get_node(target)) <= budgets.get(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double heuristic(Node node, List<Node> targets) {
+        double best = Double.MAX_VALUE;
+        for (Node target : targets) {
+            best = Math.min(best, node.euclidean_distance(target));
+        }
+        return best;
+    }
+}
@@ -1,35 +1,66 @@
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Map.Entry;
 
 class Ordering implements RoutePlan {
 	private int lu_cost;
 	private int processed_requests=0;
 	private double distance;
 	private double travel_time=0;
-	private List<Integer> path;
-	private Map<Integer, Path> segmentList;//starting from 1 represent segment between valid order 0 and 1;
+	private List<Path> segmentList;//index i-1 holds the segment between valid order i-1 and i; node sequences are materialised on demand
+	private List<Path> bypassList = null;//index i holds the segment between valid order i-1 and i+1 once routed, null otherwise
 	private List<Point> valid_order;
 	//private Function time_function;
 	private double start_time;
 	private double end_time;
+	private LegObjective leg_objective;
+	private SegmentStore segment_store = null;
 	
 	public Ordering(List<Point> order, double start, double end) {
+		this(order, start, end, LegObjective.SHORTEST);
+	}
+	
+	public Ordering(List<Point> order, double start, double end, LegObjective objective) {
+		this(order, start, end, objective, null);
+	}
+	
+	/**
+	 * @param store segments already routed for the query, consulted and filled
+	 *              by every leg this ordering needs; {@code null} routes each leg
+	 *              afresh
+	 */
+	public Ordering(List<Point> order, double start, double end, LegObjective objective, SegmentStore store) {
+		this.segment_store = store;
 		this.valid_order = new ArrayList<Point>();
-		this.segmentList = new HashMap<Integer, Path>();
-		this.path = new ArrayList<Integer>();
+		this.segmentList = new ArrayList<Path>();
 		this.valid_order.addAll(order);
 		this.start_time = start;
 		this.end_time = end;
+		this.leg_objective = objective;
 		computePath();
 		
 	}
 	
+	/**
+	 * Ordering whose segments were already routed, e.g. while walking a prefix
+	 * shared with other orderings. {@code segments} holds the legs between
+	 * consecutive points of {@code order}, each departing at {@code start}.
+	 * Legs needed later by the pruning pass are taken from {@code store} when it
+	 * is not {@code null}.
+	 */
+	Ordering(List<Point> order, List<Path> segments, double distance, double travel_time, double start, double end, LegObjective objective, SegmentStore store) {
+		this.segment_store = store;
+		this.valid_order = new ArrayList<Point>(order);
+		this.segmentList = new ArrayList<Path>(segments);
+		this.distance = distance;
+		this.travel_time = travel_time;
+		this.start_time = start;
+		this.end_time = end;
+		this.leg_objective = objective;
+	}
+	
         @Override
         public List<Point> getOrder(){
                 return this.valid_order;
@@ -37,6 +68,7 @@ class Ordering implements RoutePlan {
 
         @Override
         public int getNumberofProcessedRequests() {
+                computeLUCost();
                 return this.processed_requests;
         }
 	
@@ -189,87 +221,35 @@ class Ordering implements RoutePlan {
 //	}
 //	
 	private void computePath() {
-		this.path.add(this.valid_order.get(0).getNode().getNodeID());
 		for(int i=1;i<this.valid_order.size();i++) {
 			
 			int src = this.valid_order.get(i-1).getNode().getNodeID();
 			int dest = this.valid_order.get(i).getNode().getNodeID();
-			//List<Integer> segment = new ArrayList<Integer>();
 			Path current_path = computeShortestPath(src, dest);
-			//segment.addAll(path.getPath());
-			segmentList.put(i, current_path);
-			this.path.addAll(current_path.getPath().subList(1, current_path.getPath().size()));
-			/////System.out.println("Hi");
+			segmentList.add(current_path);
+			this.distance += current_path.getDistance();
+			this.travel_time += current_path.getTravelTime();
 		}
 	}
 	
+	/**
+	 * Route one segment departing at the ordering's start time. Only the distance
+	 * and travel time are kept; the node sequence is rebuilt by {@link Path#getPath()}
+	 * for the few routes that actually need it.
+	 */
 	public Path computeShortestPath(int src, int dest) {
-		List<Integer> tmp_path = new ArrayList<Integer>();
-		Map<Integer, Double> fScore = new HashMap<>();
-		
-		PriorityQueue<Integer> queue = new PriorityQueue<Integer>(1, 
-	        new Comparator<Integer>(){
-			@Override
-	    	public int compare(Integer i, Integer j){
-	            if(fScore.get(i) > fScore.get(j)){
-	                return 1;
-	            }
-	            else if (fScore.get(i) < fScore.get(j)){
-	                return -1;
-	            }
-	            else{
-	                return 0;
-	            }
-	        }
-	    });     
-        Map<Integer, Double> gCost = new HashMap<Integer, Double>();	//shortest path at any visited node
-        Map<Integer, Double> gTime = new HashMap<Integer, Double>();	//shortest path at any visited node
-         
-        gCost.put(src, 0.0);
-        gTime.put(src,start_time);
-        Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
-		parents .put(src, -1);	//parent of source is -1
-         
-         //priroty of any node is current arrival time at that node + the minimum time to reach destination from that node
-        double sourcePriority = Graph.get_node(src).euclidean_distance(Graph.get_node(dest));
-        fScore.put(src,  sourcePriority);
-        queue.add(src);
-         
-        while(!queue.isEmpty()){
-        	int current_node = queue.poll();
-             
-            if(current_node == dest){ //reached goal, hence return
-            	this.distance+= gCost.get(dest);
-            	this.travel_time += gTime.get(dest)-start_time;
-                while(parents.get(current_node)!=-1) {
-                	 tmp_path.add(current_node);
-                	 current_node = parents.get(current_node);
-                }
-                break;
-            }
-              
-            Node currentNode = Graph.get_node(current_node);
-            for(Entry<Integer, Edge> entry : currentNode.get_outgoing_edges().entrySet()){	//iterate for each adjacency of the current node
-            	  
-                Edge edg = entry.getValue();
-                int child = edg.get_destination();
-                double temp_g_cost = gCost.get(current_node) + edg.getDistance();
-                double temp_f_scores = temp_g_cost + Graph.get_node(child).euclidean_distance(Graph.get_node(dest));    
-                  
-                if (!gCost.containsKey(child) || temp_g_cost < gCost.get(child)) {	//update if the node is newly visited or a better path is available
-                    gCost.put(child, temp_g_cost);
-                    double temp_g_time = edg.get_arrival_time(gTime.get(current_node));
-                    gTime.put(child, temp_g_time);
-                    fScore.put(child, temp_f_scores);
-                    queue.add(child);
-                    parents.put(child, current_node);
-                }
-            }
-        }
-        tmp_path.add(src);
-	    Collections.reverse(tmp_path);
-	    Path path = new Path(tmp_path, gCost.get(dest), gTime.get(dest)-start_time);
-		return path;
+		if(this.segment_store != null) {
+			return this.segment_store.segment(src, dest, this.start_time);
+		}
+		return computeShortestPath(src, dest, this.start_time, this.leg_objective);
+	}
+	
+	static Path computeShortestPath(int src, int dest, double start_time, LegObjective objective) {
+		LegResult leg = LegSearch.leg(objective, src, dest, start_time);
+		if(leg == null) {
+			throw new IllegalStateException("No path from " + src + " to " + dest);
+		}
+		return new Path(src, dest, start_time, objective, leg.distance, leg.arrivalTime-start_time);
 	}
 
 //	private static List<BreakPoint> createArrivalBreakpoints(List<Double> time_series) {
@@ -338,26 +318,26 @@ class Ordering implements RoutePlan {
 	}
 	*/
 
+    /**
+     * Removes the request whose points save the most distance per unit of
+     * quantity when bypassed, considering the interior points of {@code list},
+     * a prefix of the valid order. Bypass legs are routed once and kept until
+     * one of their endpoints' neighbours changes, so removing a request
+     * routes at most a handful of new legs instead of one per interior point.
+     */
     public void prunePoint(List<Point> list) {
-        List<Point> temp_order = new ArrayList<>(list);
         int worstIndex = -1;
         int worstID = -1;
         double maxCost = -1;
-        Path pathToReplace = null;
         
         // Exclude first and last nodes
-        for (int i = 1; i < temp_order.size() - 1; i++) {
-            Point prev = temp_order.get(i - 1);
-            Point curr = temp_order.get(i);
-            Point next = temp_order.get(i + 1);
+        for (int i = 1; i < list.size() - 1; i++) {
+            Point curr = list.get(i);
 
-            List<Point> without_list = new ArrayList<Point>();
-            without_list.add(prev);
-            without_list.add(next);
-            Ordering without = new Ordering(without_list, start_time, end_time);
+            Path without = bypass(i);
             
             double currentDistance = without.getDistance();
-            double previousDistance = segmentList.get(i).getDistance() + segmentList.get(i+1).getDistance();
+            double previousDistance = segmentList.get(i-1).getDistance() + segmentList.get(i).getDistance();
 
             double extraDistance = previousDistance - currentDistance;
 
@@ -367,13 +347,12 @@ class Ordering implements RoutePlan {
                 maxCost = cost;
                 worstIndex = i;
                 worstID = curr.getID();
-                pathToReplace = new Path(without.getPath(), without.getDistance(), without.getTravelTime());
             }
 
         }
 
         if (worstIndex != -1) {
-        		updateDetails(worstIndex,pathToReplace);
+        		removePoint(worstIndex);
         } 
         else {
         		System.out.println("Error Occured");
@@ -383,40 +362,44 @@ class Ordering implements RoutePlan {
         removePair(worstID);
     }
 
-	private void updateDetails(int worstIndex, Path pathToReplace) {
-		Map<Integer,Path> tempSegments = new HashMap<Integer, Path>();
-		for(int i=1;i<valid_order.size();i++) {
-			if(i<worstIndex)
-				tempSegments.put(i, segmentList.get(i));
-			else if(i==worstIndex) {
-				tempSegments.put(i, pathToReplace);
-			}
-			else if(i==worstIndex+1)
-				continue;
-			else {
-				tempSegments.put(i-1, segmentList.get(i));
-			}
+	/**
+	 * @return the segment replacing the two around interior point {@code index}
+	 *         when that point is skipped
+	 */
+	private Path bypass(int index) {
+		if(this.bypassList == null) {
+			this.bypassList = new ArrayList<Path>(Collections.nCopies(this.valid_order.size(), (Path) null));
 		}
-		this.segmentList.clear();
-		this.segmentList.putAll(tempSegments);
-        this.valid_order.remove(worstIndex);
-        this.distance = 0;
-        this.travel_time = 0;
-        List<Integer> temp_path = new ArrayList<Integer>();
-        
-        for(int i=1;i<this.valid_order.size();i++) {
-        		Path currentPath = this.segmentList.get(i);
-        		if(i>1)
-        			temp_path.addAll(currentPath.getPath().subList(1, currentPath.getPath().size()));
-        		else
-        			temp_path.addAll(currentPath.getPath());
-	        
-	        this.distance += currentPath.getDistance();
-	        this.travel_time += currentPath.getTravelTime();
-        }
-        this.path.clear();
-        this.path.addAll(temp_path);
+		Path bypass = this.bypassList.get(index);
+		if(bypass == null) {
+			int prev = this.valid_order.get(index - 1).getNode().getNodeID();
+			int next = this.valid_order.get(index + 1).getNode().getNodeID();
+			bypass = computeShortestPath(prev, next);
+			this.bypassList.set(index, bypass);
+		}
+		return bypass;
+	}
+	
+	private void removePoint(int index) {
+		this.segmentList.set(index - 1, bypass(index));
+		this.segmentList.remove(index);
+		this.valid_order.remove(index);
 		
+		// Summed again rather than adjusted by the changed segments, which would
+		// leave rounding residue behind once the route has collapsed
+		this.distance = 0;
+		this.travel_time = 0;
+		for(Path currentPath : this.segmentList) {
+			this.distance += currentPath.getDistance();
+			this.travel_time += currentPath.getTravelTime();
+		}
+		
+		// The bypasses of the new neighbours now skip over different points
+		this.bypassList.remove(index);
+		this.bypassList.set(index - 1, null);
+		if(index < this.bypassList.size()) {
+			this.bypassList.set(index, null);
+		}
 	}
 //
 //	private double computeDistance(List<Integer> with_path) {
@@ -433,21 +416,21 @@ class Ordering implements RoutePlan {
 			if(this.valid_order.get(i).getID()==worstID)
 				break;
 		}
-		Point prev = this.valid_order.get(i - 1);
-        Point next = this.valid_order.get(i + 1);
-
-        List<Point> without_list = new ArrayList<Point>();
-        without_list.add(prev);
-        without_list.add(next);
-        Ordering without = new Ordering(without_list, start_time, end_time);
-        
-        Path pathToReplace = new Path(without.getPath(), without.getDistance(), without.getTravelTime());
-        
-        updateDetails(i, pathToReplace);
+		removePoint(i);
 	}
 	
+	/**
+	 * Node sequence of the whole route, materialised from the segments on every
+	 * call. Intended for exporting or drawing a final route only.
+	 */
 	public List<Integer> getPath() {
-		return this.path;
+		List<Integer> path = new ArrayList<Integer>();
+		path.add(this.valid_order.get(0).getNode().getNodeID());
+		for(Path segment : this.segmentList) {
+			List<Integer> nodes = segment.getPath();
+			path.addAll(nodes.subList(1, nodes.size()));
+		}
+		return path;
 	}
 	
 	public double getTravelTime() {
@@ -0,0 +1,523 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Multilevel overlay in the style of customizable route planning. Building it
+ * has two phases with very different costs:
+ * <ul>
+ * <li>the partition depends on topology only and is computed once: cells of
+ * at most {@code cellSize} nodes are grown by breadth-first search, and each
+ * higher level groups up to {@code fanOut} neighbouring cells of the level
+ * below, so cells are nested. Nodes with an edge leaving their cell are the
+ * boundary nodes of that level;</li>
+ * <li>customization fills, for every cell, the clique of costs between its
+ * boundary nodes under a metric taken from the current {@link Edge}s. Cells
+ * are independent and customized in parallel, bottom-up, each level searching
+ * only the overlay of the level below. Re-customizing after a profile change
+ * leaves the partition untouched.</li>
+ * </ul>
+ * Two metrics share the partition: edge lengths, answering distance queries
+ * as a {@link DistanceOracle}, and travel times entered at one departure
+ * time, a snapshot of the current profiles answering fastest-path queries.
+ * The edge weights and cliques of a customization form an immutable
+ * snapshot that is built aside and published with a single volatile write,
+ * so queries running during a re-customization keep answering from the
+ * previous snapshot and never see a partly filled one.
+ * A query runs Dijkstra where every node is scanned at the highest level whose
+ * cell contains neither endpoint, so away from source and target it only
+ * touches boundary cliques. Shortcuts are unpacked by repeating the search
+ * inside their cell one level down.
+ */
+class OverlayGraph implements DistanceOracle {
+
+    static final int DEFAULT_CELL_SIZE = 256;
+    static final int DEFAULT_FAN_OUT = 16;
+    private static final int MAX_LEVELS = 4;
+
+    private final int[] nodeIds;
+    private final Map<Integer, Integer> indexOf;
+    private final int[] offsets;
+    private final int[] targets;
+    private final Edge[] edges;
+    private final int levels;
+    /** cells[l][v]: cell of node v at overlay level l + 1. */
+    private final int[][] cells;
+    /** boundary[l][c]: boundary nodes of cell c at overlay level l + 1. */
+    private final int[][][] boundary;
+    /** boundaryPosition[l][v]: position of v in its cell's boundary list, or -1. */
+    private final int[][] boundaryPosition;
+    private volatile Metric distances;
+    private volatile Metric travelTimes;
+
+    /**
+     * Partition the loaded {@link Graph}. The overlay has no costs until
+     * {@link #customize()} is called.
+     */
+    OverlayGraph(int cellSize, int fanOut) {
+        long start = System.currentTimeMillis();
+        List<Integer> ids = new ArrayList<>();
+        for (Node node : Graph.getNodes()) {
+            ids.add(node.getNodeID());
+        }
+        Collections.sort(ids);
+        int n = ids.size();
+        this.nodeIds = new int[n];
+        this.indexOf = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            this.nodeIds[i] = ids.get(i);
+            this.indexOf.put(this.nodeIds[i], i);
+        }
+
+        this.offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            this.offsets[i + 1] = this.offsets[i] + Graph.get_node(this.nodeIds[i]).get_outgoing_edges().size();
+        }
+        this.targets = new int[this.offsets[n]];
+        this.edges = new Edge[this.offsets[n]];
+        List<Set<Integer>> neighbours = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            neighbours.add(new HashSet<>());
+        }
+        for (int i = 0; i < n; i++) {
+            int e = this.offsets[i];
+            for (Edge edge : Graph.get_node(this.nodeIds[i]).get_outgoing_edges().values()) {
+                int target = this.indexOf.get(edge.get_destination());
+                this.targets[e] = target;
+                this.edges[e++] = edge;
+                neighbours.get(i).add(target);
+                neighbours.get(target).add(i);
+            }
+        }
+
+        List<int[]> cellLevels = new ArrayList<>();
+        int[] nodeCells = growCells(neighbours, cellSize);
+        while (cellLevels.size() < MAX_LEVELS) {
+            cellLevels.add(nodeCells);
+            int cellCount = count(nodeCells);
+            if (cellCount <= fanOut) {
+                break;
+            }
+            nodeCells = groupCells(nodeCells, cellCount, neighbours, fanOut);
+        }
+        this.levels = cellLevels.size();
+        this.cells = cellLevels.toArray(new int[0][]);
+
+        this.boundary = new int[this.levels][][];
+        this.boundaryPosition = new int[this.levels][];
+        for (int l = 0; l < this.levels; l++) {
+            findBoundary(l, neighbours);
+        }
+        System.out.println("Partitioned " + n + " nodes into " + this.levels + " overlay levels with "
+                + describeLevels() + " in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    static OverlayGraph partition() {
+        return new OverlayGraph(DEFAULT_CELL_SIZE, DEFAULT_FAN_OUT);
+    }
+
+    /**
+     * Recompute every distance clique from the current edge lengths. Distance
+     * queries switch to the new costs once all levels are done.
+     */
+    synchronized void customize() {
+        long start = System.currentTimeMillis();
+        this.distances = customize(Edge::getDistance);
+        System.out.println("Customized overlay distances in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Recompute every travel time clique from the current edge profiles,
+     * charging each edge its travel time when entered at
+     * {@code departureTime}. The partition is reused, so this is the only
+     * step to repeat after profiles change; fastest-path queries switch to
+     * the new costs once all levels are done.
+     */
+    synchronized void customizeTravelTimes(double departureTime) {
+        long start = System.currentTimeMillis();
+        this.travelTimes = customize(edge -> edge.get_arrival_time(departureTime) - departureTime);
+        System.out.println("Customized overlay travel times at " + departureTime + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    private Metric customize(ToDoubleFunction<Edge> metric) {
+        double[] weights = new double[this.edges.length];
+        for (int e = 0; e < this.edges.length; e++) {
+            weights[e] = metric.applyAsDouble(this.edges[e]);
+        }
+        Metric customized = new Metric(weights, new double[this.levels][][]);
+        for (int l = 0; l < this.levels; l++) {
+            int level = l;
+            double[][] levelCliques = new double[this.boundary[l].length][];
+            IntStream.range(0, this.boundary[l].length).parallel()
+                    .forEach(cell -> levelCliques[cell] = customizeCell(customized, level, cell));
+            customized.cliques[l] = levelCliques;
+        }
+        return customized;
+    }
+
+    /**
+     * @return whether {@link #customize()} has completed at least once
+     */
+    boolean isCustomized() {
+        return this.distances != null;
+    }
+
+    /**
+     * @return whether {@link #customizeTravelTimes(double)} has completed at
+     *         least once
+     */
+    boolean hasTravelTimes() {
+        return this.travelTimes != null;
+    }
+
+    /**
+     * @return distance from {@code src} to {@code dest} under the current customization,
+     *         or positive infinity when {@code dest} cannot be reached
+     */
+    double cost(int src, int dest) {
+        return cost(this.distances, src, dest);
+    }
+
+    /**
+     * @return travel time from {@code src} to {@code dest} under the current
+     *         travel time snapshot, or positive infinity when {@code dest}
+     *         cannot be reached
+     */
+    double travelTime(int src, int dest) {
+        return cost(this.travelTimes, src, dest);
+    }
+
+    @Override
+    public double distance(int src, int dest) {
+        return cost(src, dest);
+    }
+
+    @Override
+    public List<Integer> path(int src, int dest) {
+        return path(this.distances, src, dest);
+    }
+
+    /**
+     * @return nodes of the fastest path under the current travel time
+     *         snapshot including both endpoints, or {@code null} when
+     *         {@code dest} cannot be reached
+     */
+    List<Integer> fastestPath(int src, int dest) {
+        return path(this.travelTimes, src, dest);
+    }
+
+    private double cost(Metric snapshot, int src, int dest) {
+        Integer s = this.indexOf.get(src);
+        Integer t = this.indexOf.get(dest);
+        if (s == null || t == null || snapshot == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        Double cost = query(snapshot, s, t, null, null).get(t);
+        return cost == null ? Double.POSITIVE_INFINITY : cost;
+    }
+
+    private List<Integer> path(Metric snapshot, int src, int dest) {
+        Integer s = this.indexOf.get(src);
+        Integer t = this.indexOf.get(dest);
+        if (s == null || t == null || snapshot == null) {
+            return null;
+        }
+        Map<Integer, Integer> parents = new HashMap<>();
+        Map<Integer, Integer> arcLevels = new HashMap<>();
+        if (!query(snapshot, s, t, parents, arcLevels).containsKey(t)) {
+            return null;
+        }
+
+        List<Integer> hops = new ArrayList<>();
+        for (int node = t; node != s; node = parents.get(node)) {
+            hops.add(node);
+        }
+        hops.add(s);
+        Collections.reverse(hops);
+
+        List<Integer> path = new ArrayList<>();
+        path.add(src);
+        for (int i = 1; i < hops.size(); i++) {
+            unpack(snapshot, hops.get(i - 1), hops.get(i), arcLevels.get(hops.get(i)), path);
+        }
+        return path;
+    }
+
+    /**
+     * Append the original nodes of the arc {@code from -> to} (without
+     * {@code from}) to {@code path}. Arcs of level 0 are edges; a shortcut of
+     * level {@code q} is replaced by the path found inside its cell on level
+     * {@code q - 1}.
+     */
+    private void unpack(Metric snapshot, int from, int to, int arcLevel, List<Integer> path) {
+        if (arcLevel == 0) {
+            path.add(this.nodeIds[to]);
+            return;
+        }
+
+        int l = arcLevel - 1;
+        int cell = this.cells[l][from];
+        Map<Integer, Integer> parents = new HashMap<>();
+        Map<Integer, Integer> arcLevels = new HashMap<>();
+        cellSearch(snapshot, l, cell, from, parents, arcLevels);
+
+        List<Integer> hops = new ArrayList<>();
+        for (int node = to; node != from; node = parents.get(node)) {
+            hops.add(node);
+        }
+        hops.add(from);
+        Collections.reverse(hops);
+        for (int i = 1; i < hops.size(); i++) {
+            unpack(snapshot, hops.get(i - 1), hops.get(i), arcLevels.get(hops.get(i)), path);
+        }
+    }
+
+    private double[] customizeCell(Metric snapshot, int l, int cell) {
+        int[] cellBoundary = this.boundary[l][cell];
+        int k = cellBoundary.length;
+        double[] clique = new double[k * k];
+        for (int i = 0; i < k; i++) {
+            Map<Integer, Double> costs = cellSearch(snapshot, l, cell, cellBoundary[i], null, null);
+            for (int j = 0; j < k; j++) {
+                Double cost = costs.get(cellBoundary[j]);
+                clique[i * k + j] = cost == null ? Double.POSITIVE_INFINITY : cost;
+            }
+        }
+        return clique;
+    }
+
+    /**
+     * Dijkstra from {@code source} that stays inside cell {@code cell} of level
+     * index {@code l}, using original edges on the lowest level and the
+     * overlay of level index {@code l - 1} above it.
+     */
+    private Map<Integer, Double> cellSearch(Metric snapshot, int l, int cell, int source,
+            Map<Integer, Integer> parents, Map<Integer, Integer> arcLevels) {
+        Map<Integer, Double> costs = new HashMap<>();
+        PriorityQueue<Priority> queue = new PriorityQueue<>((a, b) -> Double.compare(a.getPriority(), b.getPriority()));
+        Set<Integer> settled = new HashSet<>();
+        costs.put(source, 0.0);
+        queue.add(new Priority(source, 0));
+        while (!queue.isEmpty()) {
+            int current = queue.poll().getNode();
+            if (!settled.add(current)) {
+                continue; // stale queue entry
+            }
+            double cost = costs.get(current);
+            forEachArc(snapshot, l, current, (next, weight, arcLevel) -> {
+                if (this.cells[l][next] != cell || settled.contains(next)) {
+                    return;
+                }
+                relax(current, next, cost + weight, arcLevel, costs, queue, parents, arcLevels);
+            });
+        }
+        return costs;
+    }
+
+    /**
+     * Multilevel Dijkstra from {@code s} until {@code t} is settled.
+     */
+    private Map<Integer, Double> query(Metric snapshot, int s, int t, Map<Integer, Integer> parents,
+            Map<Integer, Integer> arcLevels) {
+        Map<Integer, Double> costs = new HashMap<>();
+        PriorityQueue<Priority> queue = new PriorityQueue<>((a, b) -> Double.compare(a.getPriority(), b.getPriority()));
+        Set<Integer> settled = new HashSet<>();
+        costs.put(s, 0.0);
+        queue.add(new Priority(s, 0));
+        while (!queue.isEmpty()) {
+            int current = queue.poll().getNode();
+            if (!settled.add(current)) {
+                continue; // stale queue entry
+            }
+            if (current == t) {
+                break;
+            }
+            double cost = costs.get(current);
+            forEachArc(snapshot, queryLevel(current, s, t), current, (next, weight, arcLevel) -> {
+                if (!settled.contains(next)) {
+                    relax(current, next, cost + weight, arcLevel, costs, queue, parents, arcLevels);
+                }
+            });
+        }
+        costs.keySet().retainAll(settled);
+        return costs;
+    }
+
+    private static void relax(int current, int next, double tentative, int arcLevel, Map<Integer, Double> costs,
+            PriorityQueue<Priority> queue, Map<Integer, Integer> parents, Map<Integer, Integer> arcLevels) {
+        if (Double.isInfinite(tentative) || (costs.containsKey(next) && tentative >= costs.get(next))) {
+            return;
+        }
+        costs.put(next, tentative);
+        queue.add(new Priority(next, tentative));
+        if (parents != null) {
+            parents.put(next, current);
+            arcLevels.put(next, arcLevel);
+        }
+    }
+
+    /**
+     * Highest overlay level whose cell around {@code v} contains neither
+     * endpoint; 0 when {@code v} shares its lowest-level cell with one of them.
+     */
+    private int queryLevel(int v, int s, int t) {
+        for (int l = this.levels - 1; l >= 0; l--) {
+            if (this.cells[l][v] != this.cells[l][s] && this.cells[l][v] != this.cells[l][t]) {
+                return l + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Visit the arcs leaving {@code v} on overlay level {@code q}: every edge
+     * on level 0; above it the clique of v's cell on level index {@code q - 1}
+     * plus the edges leaving that cell.
+     */
+    private void forEachArc(Metric snapshot, int q, int v, ArcVisitor visitor) {
+        if (q > 0) {
+            int l = q - 1;
+            int position = this.boundaryPosition[l][v];
+            if (position >= 0) {
+                int cell = this.cells[l][v];
+                int[] cellBoundary = this.boundary[l][cell];
+                double[] clique = snapshot.cliques[l][cell];
+                int k = cellBoundary.length;
+                for (int j = 0; j < k; j++) {
+                    if (j != position) {
+                        visitor.visit(cellBoundary[j], clique[position * k + j], q);
+                    }
+                }
+            }
+        }
+        for (int e = this.offsets[v]; e < this.offsets[v + 1]; e++) {
+            int next = this.targets[e];
+            if (q == 0 || this.cells[q - 1][next] != this.cells[q - 1][v]) {
+                visitor.visit(next, snapshot.weights[e], 0);
+            }
+        }
+    }
+
+    private static int[] growCells(List<Set<Integer>> neighbours, int cellSize) {
+        int n = neighbours.size();
+        int[] cellOf = new int[n];
+        Arrays.fill(cellOf, -1);
+        int cell = 0;
+        for (int seed = 0; seed < n; seed++) {
+            if (cellOf[seed] != -1) {
+                continue;
+            }
+            int size = 0;
+            ArrayDeque<Integer> frontier = new ArrayDeque<>();
+            frontier.add(seed);
+            cellOf[seed] = cell;
+            while (!frontier.isEmpty() && size < cellSize) {
+                int node = frontier.poll();
+                size++;
+                for (int next : neighbours.get(node)) {
+                    if (cellOf[next] == -1 && size + frontier.size() < cellSize) {
+                        cellOf[next] = cell;
+                        frontier.add(next);
+                    }
+                }
+            }
+            cell++;
+        }
+        return cellOf;
+    }
+
+    private static int[] groupCells(int[] cellOf, int cellCount, List<Set<Integer>> neighbours, int fanOut) {
+        List<Set<Integer>> cellNeighbours = new ArrayList<>(cellCount);
+        for (int c = 0; c < cellCount; c++) {
+            cellNeighbours.add(new HashSet<>());
+        }
+        for (int v = 0; v < neighbours.size(); v++) {
+            for (int w : neighbours.get(v)) {
+                if (cellOf[v] != cellOf[w]) {
+                    cellNeighbours.get(cellOf[v]).add(cellOf[w]);
+                }
+            }
+        }
+
+        int[] groups = growCells(cellNeighbours, fanOut);
+        int[] grouped = new int[cellOf.length];
+        for (int v = 0; v < cellOf.length; v++) {
+            grouped[v] = groups[cellOf[v]];
+        }
+        return grouped;
+    }
+
+    private void findBoundary(int l, List<Set<Integer>> neighbours) {
+        int[] cellOf = this.cells[l];
+        int cellCount = count(cellOf);
+        List<List<Integer>> cellBoundary = new ArrayList<>(cellCount);
+        for (int c = 0; c < cellCount; c++) {
+            cellBoundary.add(new ArrayList<>());
+        }
+        this.boundaryPosition[l] = new int[cellOf.length];
+        for (int v = 0; v < cellOf.length; v++) {
+            this.boundaryPosition[l][v] = -1;
+            for (int w : neighbours.get(v)) {
+                if (cellOf[w] != cellOf[v]) {
+                    this.boundaryPosition[l][v] = cellBoundary.get(cellOf[v]).size();
+                    cellBoundary.get(cellOf[v]).add(v);
+                    break;
+                }
+            }
+        }
+        this.boundary[l] = new int[cellCount][];
+        for (int c = 0; c < cellCount; c++) {
+            this.boundary[l][c] = cellBoundary.get(c).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    private String describeLevels() {
+        StringBuilder description = new StringBuilder();
+        for (int l = 0; l < this.levels; l++) {
+            int boundaryNodes = 0;
+            for (int[] cellBoundary : this.boundary[l]) {
+                boundaryNodes += cellBoundary.length;
+            }
+            description.append(l == 0 ? "" : ", ").append(this.boundary[l].length).append(" cells/")
+                    .append(boundaryNodes).append(" boundary nodes");
+        }
+        return description.toString();
+    }
+
+    private static int count(int[] cellOf) {
+        int max = -1;
+        for (int cell : cellOf) {
+            max = Math.max(max, cell);
+        }
+        return max + 1;
+    }
+
+    /**
+     * Costs of one customization. Filled level by level before it is
+     * published and never changed afterwards.
+     */
+    private static final class Metric {
+        private final double[] weights;
+        /** cliques[l][c][i * k + j]: cost from boundary node i to boundary node j of cell c. */
+        private final double[][][] cliques;
+
+        Metric(double[] weights, double[][][] cliques) {
+            this.weights = weights;
+            this.cliques = cliques;
+        }
+    }
+
+    private interface ArcVisitor {
+        void visit(int next, double weight, int arcLevel);
+    }
+}
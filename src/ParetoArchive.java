@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Non-dominated set of routes under loading/unloading cost (minimised),
+ * distance (minimised) and processed requests (maximised). A route is
+ * dropped when another one is at least as good in all three objectives.
+ *
+ * <p>The archive keeps one two-objective staircase per processed-request count:
+ * a tree keyed by LU cost whose distances strictly decrease as the cost grows.
+ * A new route is dominated exactly when, for some count at least its own, the
+ * staircase entry with the largest cost not above its cost is not longer, and
+ * the routes it dominates form a contiguous run of each staircase with a count
+ * not above its own. Both checks therefore cost a tree lookup per distinct
+ * count instead of a scan of the whole front.</p>
+ *
+ * <p>Routes with identical objectives are resolved by the visiting sequence of
+ * their points, so the final front does not depend on the order in which
+ * routes were added. Archives filled by different threads can be merged with
+ * {@link #addAll(ParetoArchive)}. Not thread-safe.</p>
+ */
+class ParetoArchive<T extends RoutePlan> {
+
+    private static final Comparator<Entry<?>> FRONT_ORDER = Comparator
+            .<Entry<?>>comparingInt(entry -> entry.luCost)
+            .thenComparingDouble(entry -> entry.distance)
+            .thenComparing(Comparator.<Entry<?>>comparingInt(entry -> entry.processed).reversed())
+            .thenComparing(entry -> entry.key);
+
+    private final NavigableMap<Integer, NavigableMap<Integer, Entry<T>>> staircases = new TreeMap<>();
+    private int size;
+
+    /**
+     * @return whether {@code plan} entered the archive
+     */
+    boolean add(T plan) {
+        return add(new Entry<>(plan));
+    }
+
+    /**
+     * Adds every route of {@code other}, leaving it unchanged.
+     */
+    void addAll(ParetoArchive<T> other) {
+        for (NavigableMap<Integer, Entry<T>> staircase : other.staircases.values()) {
+            for (Entry<T> entry : staircase.values()) {
+                add(entry);
+            }
+        }
+    }
+
+    /**
+     * @return the routes of the front ordered by LU cost, then distance, then
+     *         decreasing processed requests
+     */
+    List<T> toList() {
+        List<Entry<T>> entries = new ArrayList<>(this.size);
+        for (NavigableMap<Integer, Entry<T>> staircase : this.staircases.values()) {
+            entries.addAll(staircase.values());
+        }
+        entries.sort(FRONT_ORDER);
+
+        List<T> plans = new ArrayList<>(entries.size());
+        for (Entry<T> entry : entries) {
+            plans.add(entry.plan);
+        }
+        return plans;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private boolean add(Entry<T> candidate) {
+        for (NavigableMap<Integer, Entry<T>> staircase : this.staircases.tailMap(candidate.processed, true).values()) {
+            Map.Entry<Integer, Entry<T>> floor = staircase.floorEntry(candidate.luCost);
+            if (floor == null || floor.getValue().distance > candidate.distance) {
+                continue;
+            }
+            Entry<T> incumbent = floor.getValue();
+            if (!incumbent.sameObjectives(candidate) || incumbent.key.compareTo(candidate.key) <= 0) {
+                return false;
+            }
+        }
+
+        for (NavigableMap<Integer, Entry<T>> staircase : this.staircases.headMap(candidate.processed, true).values()) {
+            Iterator<Entry<T>> dominated = staircase.tailMap(candidate.luCost, true).values().iterator();
+            while (dominated.hasNext() && dominated.next().distance >= candidate.distance) {
+                dominated.remove();
+                this.size--;
+            }
+        }
+        this.staircases.values().removeIf(NavigableMap::isEmpty);
+
+        this.staircases.computeIfAbsent(candidate.processed, processed -> new TreeMap<>())
+                .put(candidate.luCost, candidate);
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Route with its objectives read once, since {@link Ordering} recomputes
+     * its LU cost on every call.
+     */
+    private static final class Entry<T extends RoutePlan> {
+        private final T plan;
+        private final int luCost;
+        private final double distance;
+        private final int processed;
+        private final String key;
+
+        Entry(T plan) {
+            this.plan = plan;
+            this.luCost = plan.getLUCost();
+            this.distance = plan.getDistance();
+            this.processed = plan.getNumberofProcessedRequests();
+            StringBuilder key = new StringBuilder();
+            for (Point point : plan.getOrder()) {
+                key.append(point.getType().charAt(0)).append(point.getID()).append('.');
+            }
+            this.key = key.toString();
+        }
+
+        boolean sameObjectives(Entry<?> other) {
+            return this.luCost == other.luCost && this.distance == other.distance
+                    && this.processed == other.processed;
+        }
+    }
+}
@@ -6,12 +6,19 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * 
+ * Distance and travel time of a route segment together with its node sequence.
+ * Segments created from leg results alone keep only the endpoints and search
+ * settings; their node sequence is recomputed by {@link #getPath()} whenever it
+ * is actually needed instead of being stored.
  */
 public class Path {
 	private double distance;
 	private double travelTime;
 	List<Integer> path;
+	private int source;
+	private int destination;
+	private double departureTime;
+	private LegObjective objective;
 	
 	public Path(List<Integer> p, double d, double t) {
 		this.path = new ArrayList<Integer>();
@@ -20,6 +27,15 @@ public class Path {
 		this.travelTime = t;
 	}
 	
+	public Path(int src, int dest, double departure, LegObjective objective, double d, double t) {
+		this.source = src;
+		this.destination = dest;
+		this.departureTime = departure;
+		this.objective = objective;
+		this.distance = d;
+		this.travelTime = t;
+	}
+	
 	public double getDistance() {
 		return this.distance;
 	}
@@ -29,6 +45,8 @@ public class Path {
 	}
 	
 	public List<Integer> getPath(){
+		if(this.path==null)
+			return LegSearch.path(this.objective, this.source, this.destination, this.departureTime);
 		return this.path;
 	}
 }
@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+
+/**
+ * Depth-first evaluation of the cross product of per-cluster orderings. The
+ * walk appends one ordering per cluster to a shared route prefix, carrying the
+ * state of the prefix (last node, elapsed travel time, distance and load) and
+ * routing only the legs the new cluster adds. All combinations below a prefix
+ * reuse its legs, and a prefix that already breaks the source-before-destination
+ * order or the vehicle capacity is dropped with its whole subtree.
+ *
+ * <p>The first few clusters are expanded with a {@link CrossProductSpliterator}
+ * so that a parallel stream hands disjoint subtrees to the worker threads; each
+ * subtree is then walked sequentially with undo-based state. The stream runs
+ * on a dedicated pool whose size is set with {@link #setParallelism(int)}, so
+ * the evaluation neither competes with nor is limited by other users of the
+ * common pool.</p>
+ */
+class PrefixOrderingWalk {
+
+    private static final int SUBTREES_PER_THREAD = 4;
+
+    private static ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final List<List<List<Point>>> choices;
+    private final Point depot;
+    private final int capacity;
+    private final double startTime;
+    private final double endTime;
+    private final LegObjective objective;
+    private final SegmentStore segmentStore;
+
+    /**
+     * @param choices      for every cluster in visiting order, its candidate
+     *                     orderings
+     * @param depot        first and last point of every route
+     * @param capacity     vehicle capacity
+     * @param startTime    departure time of every leg, as in {@link Ordering}
+     * @param endTime      end of the working hours
+     * @param objective    leg routing objective
+     * @param segmentStore legs already routed for the query, shared by all
+     *                     orderings
+     */
+    PrefixOrderingWalk(List<List<List<Point>>> choices, Point depot, int capacity,
+            double startTime, double endTime, LegObjective objective, SegmentStore segmentStore) {
+        this.choices = choices;
+        this.depot = depot;
+        this.capacity = capacity;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.objective = objective;
+        this.segmentStore = segmentStore;
+    }
+
+    /**
+     * Hands every complete, precedence- and capacity-feasible route to
+     * {@code sink}, possibly from several threads at once.
+     */
+    void forEach(Consumer<Ordering> sink) {
+        ForkJoinPool workers = getPool();
+        int splitDepth = splitDepth(workers.getParallelism() * SUBTREES_PER_THREAD);
+        List<List<List<Point>>> prefixChoices = this.choices.subList(0, splitDepth);
+        workers.submit(() -> StreamSupport.stream(new CrossProductSpliterator(prefixChoices), true).forEach(prefix -> {
+            Walker walker = new Walker(sink);
+            if (walker.extend(prefix)) {
+                walker.walk(splitDepth);
+            }
+        })).join();
+    }
+
+    /**
+     * Sets the number of worker threads evaluating orderings. Walks already
+     * running finish on the previous pool.
+     *
+     * @throws IllegalArgumentException if {@code threads} is not positive
+     */
+    static synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + threads);
+        }
+        if (threads != pool.getParallelism()) {
+            ForkJoinPool previous = pool;
+            pool = new ForkJoinPool(threads);
+            previous.shutdown();
+        }
+    }
+
+    static synchronized int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * @return the pool running the walks, also used by {@link Rider} to
+     *         enumerate the orderings of its clusters
+     */
+    static synchronized ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return the number of leading clusters whose combinations give at least
+     *         {@code subtrees} independent subtrees, or all of them
+     */
+    private int splitDepth(int subtrees) {
+        long combinations = 1;
+        int depth = 0;
+        while (depth < this.choices.size() && combinations < subtrees) {
+            combinations *= Math.max(1, this.choices.get(depth).size());
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Mutable route prefix owned by one thread.
+     */
+    private final class Walker {
+
+        private final Consumer<Ordering> sink;
+        private final List<Point> points = new ArrayList<>();
+        private final List<Path> segments = new ArrayList<>();
+        private final Set<Integer> sources = new HashSet<>();
+        private int node;
+        private double travelTime;
+        private double distance;
+        private int load;
+
+        Walker(Consumer<Ordering> sink) {
+            this.sink = sink;
+            this.points.add(depot);
+            this.node = depot.getNode().getNodeID();
+        }
+
+        void walk(int depth) {
+            if (depth == choices.size()) {
+                emit();
+                return;
+            }
+
+            for (List<Point> ordering : choices.get(depth)) {
+                int pointCount = this.points.size();
+                int previousNode = this.node;
+                double previousTravelTime = this.travelTime;
+                double previousDistance = this.distance;
+                int previousLoad = this.load;
+
+                if (extend(ordering)) {
+                    walk(depth + 1);
+                }
+
+                for (int i = this.points.size() - 1; i >= pointCount; i--) {
+                    Point point = this.points.remove(i);
+                    this.segments.remove(i - 1);
+                    if (point.getType() == "Source") {
+                        this.sources.remove(point.getID());
+                    }
+                }
+                this.node = previousNode;
+                this.travelTime = previousTravelTime;
+                this.distance = previousDistance;
+                this.load = previousLoad;
+            }
+        }
+
+        /**
+         * Appends {@code ordering} to the prefix.
+         *
+         * @return false as soon as a point breaks precedence or capacity; the
+         *         points appended so far stay on the prefix for the caller to
+         *         undo
+         */
+        boolean extend(List<Point> ordering) {
+            for (Point point : ordering) {
+                if (point.getType() == "Source") {
+                    this.load += point.getServiceObject().getServiceQuantity();
+                    if (this.load > capacity) {
+                        return false;
+                    }
+                } else if (point.getType() == "Destination") {
+                    if (!this.sources.contains(point.getID())) {
+                        return false;
+                    }
+                    this.load -= point.getServiceObject().getServiceQuantity();
+                }
+                append(point);
+                if (point.getType() == "Source") {
+                    this.sources.add(point.getID());
+                }
+            }
+            return true;
+        }
+
+        private void append(Point point) {
+            int next = point.getNode().getNodeID();
+            Path segment = segmentStore.segment(this.node, next, startTime);
+            this.points.add(point);
+            this.segments.add(segment);
+            this.distance += segment.getDistance();
+            this.travelTime += segment.getTravelTime();
+            this.node = next;
+        }
+
+        private void emit() {
+            Path home = segmentStore.segment(this.node, depot.getNode().getNodeID(), startTime);
+            this.points.add(depot);
+            this.segments.add(home);
+            this.sink.accept(new Ordering(this.points, this.segments, this.distance + home.getDistance(),
+                    this.travelTime + home.getTravelTime(), startTime, endTime, objective, segmentStore));
+            this.points.remove(this.points.size() - 1);
+            this.segments.remove(this.segments.size() - 1);
+        }
+    }
+}
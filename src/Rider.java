@@ -1,16 +1,26 @@
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.PriorityQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 class Rider {
+	private static final int PROGRESS_REPORTS = 20;
+	private static final int MIN_ADAPTIVE_CLUSTER_SIZE = 2;
+	private static final int[] ADAPTIVE_SPLIT_THRESHOLDS = {0, 1, 2, 3, 4};
+	private static final double ENUMERATION_STEP_MICROS = 0.05;
+	
+	private static double latency_budget_ms = 0;
+	private static double micros_per_ordering = 100;
+	private static boolean quiet = false;
+	
 	private List<Ordering> pareto_optimal_orders = null;
-	private List<List<Point>> valid_orderings;
 	private double QUERY_START_TIME;
 	private double QUERY_END_TIME;
 	private Point depot;
@@ -18,9 +28,31 @@ class Rider {
 	private Map<Integer, Service> service_requests;
 	private List<Cluster> disjoint_clusters;
 	private int max_size;
+	private int split_thr = VRPLoadingUnloadingMain.SPLIT_THR;
 	private int query_id;
+	private LegObjective leg_objective;
+	private DepotReturnProfile depot_return = null;
+	private long evaluated_orderings = 0;
+	private SegmentStore segment_store;
 	
 	public Rider (Query query, int m) {
+		this(query, m, LegObjective.SHORTEST);
+	}
+	
+	public Rider (Query query, int m, LegObjective objective) {
+		this(query, m, objective, false);
+	}
+	
+	/**
+	 * @param label_dp evaluate the cluster orderings with {@link ClusterLabelDP}
+	 *                 instead of walking their whole cross product
+	 */
+	public Rider (Query query, int m, LegObjective objective, boolean label_dp) {
+		this.leg_objective = objective;
+		this.segment_store = new SegmentStore(objective);
+		if(label_dp) {
+			this.depot_return = new DepotReturnProfile(query, objective);
+		}
 		this.QUERY_END_TIME = query.getQueryEndTime();
 		this.QUERY_START_TIME = query.getQueryStartTime();
 		this.max_size = m;
@@ -30,7 +62,6 @@ class Rider {
 		this.service_requests.putAll(query.getServices());
 		this.query_id = query.getID();
 		this.disjoint_clusters = new ArrayList<Cluster>();
-		this.valid_orderings = new ArrayList<List<Point>>();
 		driver();
 	}
 
@@ -68,20 +99,129 @@ class Rider {
 			Point point = minHeap.poll();
 			sorted_list.add(point);
 		}
+		boolean adaptive = getLatencyBudget() > 0;
+		if(adaptive) {
+			chooseClusterSizes(sorted_list);
+		}
 		sweepLine(sorted_list);
 		findValidOrdernings();
 		
+		long start = System.nanoTime();
 		computeFinalOrder();
+		if(adaptive && this.evaluated_orderings > 0) {
+			recordOrderingCost((System.nanoTime() - start) / 1e3 / this.evaluated_orderings);
+		}
+	}
+	
+	/**
+	 * Enables adaptive clustering: every query then picks the largest cluster size,
+	 * and the split threshold, whose estimated evaluation time fits the budget,
+	 * instead of using the size passed to the constructor. A budget of zero turns
+	 * the mode off.
+	 */
+	public static synchronized void setLatencyBudget(double budget_ms) {
+		if(budget_ms < 0) {
+			throw new IllegalArgumentException("Latency budget must not be negative: " + budget_ms);
+		}
+		latency_budget_ms = budget_ms;
+	}
+	
+	public static synchronized double getLatencyBudget() {
+		return latency_budget_ms;
+	}
+	
+	/**
+	 * Silences the per-query progress lines, e.g. while their console output
+	 * would be measured along with the work they report on.
+	 */
+	public static synchronized void setQuiet(boolean silent) {
+		quiet = silent;
+	}
+	
+	public static synchronized boolean isQuiet() {
+		return quiet;
+	}
+	
+	private static void report(String line) {
+		if(!isQuiet()) {
+			System.out.println(line);
+		}
+	}
+	
+	private static synchronized double getMicrosPerOrdering() {
+		return micros_per_ordering;
+	}
+	
+	// Running average of the measured cost, so later queries estimate with the speed actually observed
+	private static synchronized void recordOrderingCost(double micros) {
+		micros_per_ordering = (micros_per_ordering + micros) / 2;
+	}
+	
+	/**
+	 * Clusters the points with every candidate cluster size, from the largest down,
+	 * and split threshold, without enumerating anything, and keeps the largest size
+	 * whose cheapest threshold fits the latency budget. When none fits, the cheapest
+	 * candidate overall is kept.
+	 */
+	private void chooseClusterSizes(List<Point> sorted_list) {
+		double budget_micros = getLatencyBudget() * 1000;
+		double per_ordering = getMicrosPerOrdering();
+		int best_size = this.max_size;
+		int best_thr = this.split_thr;
+		double best_estimate = Double.POSITIVE_INFINITY;
+		
+		for(int size = VRPLoadingUnloadingMain.MAX_SUBSET_CLUSTER_SIZE; size >= MIN_ADAPTIVE_CLUSTER_SIZE && best_estimate > budget_micros; size--) {
+			for(int thr : ADAPTIVE_SPLIT_THRESHOLDS) {
+				this.max_size = size;
+				this.split_thr = thr;
+				sweepLine(sorted_list);
+				double estimate = estimateEvaluationMicros(per_ordering);
+				this.disjoint_clusters.clear();
+				if(estimate < best_estimate) {
+					best_estimate = estimate;
+					best_size = size;
+					best_thr = thr;
+				}
+			}
+		}
+		
+		this.max_size = best_size;
+		this.split_thr = best_thr;
+		report("Adaptive clustering for query " + query_id + ": cluster size " + best_size
+				+ ", split threshold " + best_thr + ", estimated " + Math.round(best_estimate / 1000) + " ms");
+	}
+	
+	/**
+	 * Estimated time to enumerate the current clusters and evaluate their cross
+	 * product. A cluster small enough to be permuted yields every ordering that puts
+	 * each of its paired pickups first, n!/2^pairs; a larger one costs a subset
+	 * program of 2^n * n^2 steps and yields one ordering per last point.
+	 */
+	private double estimateEvaluationMicros(double per_ordering) {
+		double orderings = 1;
+		double enumeration = 0;
+		for(Cluster cluster : this.disjoint_clusters) {
+			int n = cluster.getSize();
+			if(n > Cluster.MAX_PERMUTED_POINTS) {
+				orderings *= n;
+				enumeration += Math.pow(2, n) * n * n;
+			}
+			else {
+				double permutations = cluster.getPermutationCount();
+				orderings *= permutations;
+				enumeration += permutations;
+			}
+		}
+		return orderings * per_ordering + enumeration * ENUMERATION_STEP_MICROS;
 	}
 
         private void findValidOrdernings() {
 
                 //Map<Integer,Point> current_consumptions = new HashMap<Integer, Point>();
                 Map<Integer,Boolean> prunedOnCapacity = new HashMap<Integer,Boolean>();
-                int i=0;
                 int current_consumption = 0;
-                // Walk each temporal cluster independently and compute feasible permutations
-                // while progressively tracking vehicle capacity already consumed.
+                // Track the vehicle capacity already consumed cluster by cluster; this is the
+                // only step whose outcome depends on the clusters before it.
                 //List<List<List<Point>>> allPermutedLists = new ArrayList<>();
                 for(Cluster cluster:disjoint_clusters) {
 //			for(Entry<Integer, Point> entry: current_consumptions.entrySet()) {
@@ -90,14 +230,27 @@ class Rider {
 			
 			cluster.setAvailableCapacity(this.max_capacity-current_consumption);
 			current_consumption += cluster.filterOutBasedOnCapacity(prunedOnCapacity);
-			
+		}
+		
+		// Feasible permutations of each cluster only depend on its own points and capacity,
+		// so the clusters are enumerated and pruned on the ordering evaluation pool. A large
+		// cluster also splits its own search there, so it does not leave the other threads idle.
+		long[] elapsed = new long[disjoint_clusters.size()];
+		PrefixOrderingWalk.getPool().submit(() -> IntStream.range(0, disjoint_clusters.size()).parallel().forEach(i -> {
+			Cluster cluster = disjoint_clusters.get(i);
+			long start = System.nanoTime();
+			cluster.setParallelEnumerationEnabled(true);
 			cluster.computeValidOrderings();
 //			cluster.computeConsumption(current_consumptions);
 			cluster.validateAndPruneOrderings();
+			elapsed[i] = System.nanoTime() - start;
+		})).join();
+		for(int i=0;i<disjoint_clusters.size();i++) {
 			//allPermutedLists.add(cluster.getOrderings());
-			System.out.println("Pruning done for cluster "+ i++ + " Out of "+ disjoint_clusters.size());
+			report("Pruning done for cluster "+ i + " Out of "+ disjoint_clusters.size() + ": "
+					+ disjoint_clusters.get(i).getOrderings().size() + " orderings in " + elapsed[i] / 1000000 + " ms");
 		}
-		System.out.println("All pruning done");
+		report("All pruning done");
 		List<Cluster> temp_disjoint_cluster = new ArrayList<Cluster>();
 		for(Cluster cluster:disjoint_clusters) {
 			if(cluster.getOrderings().size()>0) {
@@ -107,57 +260,8 @@ class Rider {
 		disjoint_clusters.clear();
 		disjoint_clusters.addAll(temp_disjoint_cluster);
 			
-        generateCrossProduct(0, new ArrayList<>());
-        System.out.println("All cross product generated");
-        List<List<Point>> temp_valid_ordering = new ArrayList<List<Point>>();
-        for (List<Point> combination : this.valid_orderings) {
-        	if(checkSDConstraint(combination)) {
-        		temp_valid_ordering.add(combination);
-	            combination.add(0, this.depot);
-	            combination.add(this.depot);
-        	}
-        }
-        this.valid_orderings.clear();
-        this.valid_orderings.addAll(temp_valid_ordering);
     }
 
-    private boolean checkSDConstraint(List<Point> combination) {
-		Map<Integer, Point> sources = new HashMap<Integer, Point>();
-		for(Point point: combination) {
-			if(point.getType()=="Source") {
-				sources.put(point.getID(), point);
-			}
-			else if(point.getType()=="Destination") {
-				if(!sources.containsKey(point.getID())) {
-					return false;
-				}
-			}
-		}
-		return true;
-	}
-
-	private void generateCrossProduct(int depth, List<Point> current_points) {
-        if (depth == this.disjoint_clusters.size()) {
-	        	List<Point> ordering = new ArrayList<Point>();
-	        	ordering.addAll(current_points);
-	        	this.valid_orderings.add(ordering);
-            return;
-        }
-
-        for (List<Point> permutation: this.disjoint_clusters.get(depth).getOrderings()) {
-	        
-	        	current_points.addAll(permutation);
-            generateCrossProduct(depth + 1, current_points);
-            
-            for (int i = 0; i < permutation.size(); i++) {
-            		current_points.remove(current_points.size() - 1); // backtrack
-            }
-            
-        }
-
-		
-	}
-
 	//to compute disjoint clusters
         private void sweepLine(List<Point> sorted_list) {
                 // Greedy sweep over sorted time windows to identify disjoint temporal clusters
@@ -301,11 +405,14 @@ class Rider {
 		current_cluster.computeMinOverlappingPoint();
 		
 		double range_from_center = center - current_cluster.getStartTime();
-		for(double i=0;i<range_from_center;i++) {
-			if(current_cluster.getCounter(center-i)<=current_cluster.getMinCounter()+VRPLoadingUnloadingMain.SPLIT_THR) {
+		int reach = (int) Math.max(0, Math.ceil(range_from_center));
+		// Overlap at center-i and center+i, read from one histogram instead of a scan per minute
+		int[] counters = current_cluster.getCounters(center, reach);
+		for(int i=0;i<range_from_center;i++) {
+			if(counters[reach-i]<=current_cluster.getMinCounter()+this.split_thr) {
 				return (center-i);
 			}
-			else if(current_cluster.getCounter(center+i)<=current_cluster.getMinCounter()+VRPLoadingUnloadingMain.SPLIT_THR){
+			else if(counters[reach+i]<=current_cluster.getMinCounter()+this.split_thr){
 				return (center+i);
 			}
 		}
@@ -315,25 +422,55 @@ class Rider {
         private void computeFinalOrder() {
                 //int i=0;
 
-                this.pareto_optimal_orders = new ArrayList<Ordering>();
+                AtomicLong counter = new AtomicLong(0);
 
-                AtomicInteger counter = new AtomicInteger(0);
+            List<List<List<Point>>> cluster_orderings = new ArrayList<List<List<Point>>>();
+            for(Cluster cluster:disjoint_clusters) {
+            	cluster_orderings.add(cluster.getOrderings());
+            }
 
-            List<Ordering> filtered_orders = Collections.synchronizedList(new ArrayList<>());
+            if(this.depot_return != null) {
+            	// Extend Pareto labels cluster by cluster instead of enumerating every combination
+            	ClusterLabelDP dp = new ClusterLabelDP(cluster_orderings, this.depot, this.max_capacity,
+            			this.QUERY_START_TIME, this.QUERY_END_TIME, this.leg_objective, this.depot_return);
+            	ParetoArchive<Ordering> archive = new ParetoArchive<Ordering>();
+            	for(Ordering temp_ordering : dp.solve()) {
+            		archive.add(temp_ordering);
+            	}
+            	this.pareto_optimal_orders = archive.toList();
+            	return;
+            }
+            long total = CrossProductSpliterator.size(cluster_orderings);
+            long report_every = Math.max(1, total / PROGRESS_REPORTS);
 
-            // Validate every candidate ordering in parallel and maintain the Pareto frontier
-            this.valid_orderings.parallelStream().forEach(ordering -> {
-                Ordering temp_ordering = new Ordering(ordering, this.QUERY_START_TIME, this.QUERY_END_TIME);
+            // Walk the combinations depth-first in parallel, sharing route prefixes, and keep a Pareto
+            // archive per worker thread so that the fronts are only merged once at the end
+            Queue<ParetoArchive<Ordering>> archives = new ConcurrentLinkedQueue<ParetoArchive<Ordering>>();
+            ThreadLocal<ParetoArchive<Ordering>> local_archive = ThreadLocal.withInitial(() -> {
+            	ParetoArchive<Ordering> archive = new ParetoArchive<Ordering>();
+            	archives.add(archive);
+            	return archive;
+            });
+            PrefixOrderingWalk walk = new PrefixOrderingWalk(cluster_orderings, this.depot, this.max_capacity,
+            		this.QUERY_START_TIME, this.QUERY_END_TIME, this.leg_objective, this.segment_store);
+            walk.forEach(temp_ordering -> {
 	        if (temp_ordering.validateAndPrunePoints()) {
-	            filtered_orders.add(temp_ordering);
+	            local_archive.get().add(temp_ordering);
+	        }
+	        long index = counter.incrementAndGet();
+	        if (index % report_every == 0) {
+	            report(index + " of at most " + total + " ordering is processed. Query id: " + query_id);
 	        }
-	        int index = counter.incrementAndGet();
-	        System.out.println(index + " of " + this.valid_orderings.size() + " ordering is processed. Query id: " + query_id);
 	    });
 	    
-	    for(Ordering temp_ordering : filtered_orders) {
-	    		checkDominance(temp_ordering);
+	    ParetoArchive<Ordering> front = new ParetoArchive<Ordering>();
+	    for(ParetoArchive<Ordering> archive : archives) {
+	    	front.addAll(archive);
 	    }
+	    this.pareto_optimal_orders = front.toList();
+	    this.evaluated_orderings = counter.get();
+	    report(this.evaluated_orderings + " orderings evaluated over " + this.segment_store.size()
+	    		+ " distinct legs. Query id: " + query_id);
 		
 //		for(List<Point> ordering : this.valid_orderings) {
 //			Ordering temp_ordering = new Ordering(ordering,this.QUERY_START_TIME,this.QUERY_END_TIME);
@@ -343,102 +480,43 @@ class Rider {
 //		}
 	}
 	
-	private void checkDominance(Ordering temp_ordering) {
-		List<Ordering> dominated = new ArrayList<Ordering>();
-		for(Ordering ordering:this.pareto_optimal_orders) {
-			if(ordering.getLUCost()<=temp_ordering.getLUCost() && ordering.getDistance()<=temp_ordering.getDistance() 
-					&& ordering.getNumberofProcessedRequests()>=temp_ordering.getNumberofProcessedRequests()) {
-				return;
-			}
-			else if(ordering.getLUCost()>=temp_ordering.getLUCost() && ordering.getDistance()>=temp_ordering.getDistance()
-					&& ordering.getNumberofProcessedRequests()>=temp_ordering.getNumberofProcessedRequests()) {
-				dominated.add(ordering);
-			}
-		}
-		for(Ordering ordering:dominated) {
-			this.pareto_optimal_orders.remove(ordering);
-		}
-		this.pareto_optimal_orders.add(temp_ordering);
-	}
-
 	public List<Ordering> getFinalOrders() {
 		return this.pareto_optimal_orders;
 	}
 	
-        private List<Cluster> splitClusterBySpatialCoordinates(Cluster currentCluster) {
-            List<Point> points = currentCluster.getPoints();
-            List<Cluster> clusters = new ArrayList<>();
-
-            // Initialize each point as its own cluster (single-linkage agglomerative clustering)
-            for (Point point : points) {
-                Cluster singleton = new Cluster();
-                singleton.addPoint(point);
-                clusters.add(singleton);
-            }
-
-            // Iteratively merge the closest clusters without exceeding the maximum cluster size
-            boolean merged;
-            do {
-                merged = false;
-                double bestDistance = Double.MAX_VALUE;
-                int mergeA = -1;
-                int mergeB = -1;
-
-                for (int i = 0; i < clusters.size(); i++) {
-                    for (int j = i + 1; j < clusters.size(); j++) {
-                        Cluster clusterA = clusters.get(i);
-                        Cluster clusterB = clusters.get(j);
-
-                        if (clusterA.getSize() + clusterB.getSize() > this.max_size) {
-                            continue;
-                        }
-
-                        double distance = calculateClusterDistance(clusterA, clusterB);
-                        if (distance < bestDistance) {
-                            bestDistance = distance;
-                            mergeA = i;
-                            mergeB = j;
-                        }
-                    }
-                }
-
-                if (mergeA != -1 && mergeB != -1) {
-                    Cluster clusterA = clusters.get(mergeA);
-                    Cluster clusterB = clusters.get(mergeB);
-
-                    for (Point point : clusterB.getPoints()) {
-                        clusterA.addPoint(point);
-                    }
-                    clusters.remove(mergeB);
-                    merged = true;
-                }
-            } while (merged);
-
-            for (Cluster cluster : clusters) {
-                if (cluster.getSize() > this.max_size) {
-                    throw new IllegalStateException(
-                        "Spatial clustering failed to respect MAX_CLUSTER_SIZE; resulting size: " + cluster.getSize());
-                }
-            }
-
-            return clusters;
-        }
+	/**
+	 * @return number of complete orderings evaluated by the prefix walk
+	 */
+	public long getEvaluatedOrderings() {
+		return this.evaluated_orderings;
+	}
+	
+	/**
+	 * @return number of distinct legs routed for the query, each shared by every
+	 *         evaluated ordering that contains it
+	 */
+	public int getRoutedLegs() {
+		return this.segment_store.size();
+	}
+	
+        private List<Cluster> splitClusterBySpatialCoordinates(Cluster currentCluster) {
+            List<Cluster> clusters = new ArrayList<>();
+
+            // Single-linkage agglomerative clustering that never grows a cluster beyond the maximum size
+            for (List<Point> group : SpatialLinkage.cluster(currentCluster.getPoints(), this.max_size)) {
+                Cluster cluster = new Cluster();
+                cluster.addPoints(group);
+                clusters.add(cluster);
+            }
 
-        private double calculateClusterDistance(Cluster clusterA, Cluster clusterB) {
-            double minDistance = Double.MAX_VALUE;
-            for (Point pointA : clusterA.getPoints()) {
-                for (Point pointB : clusterB.getPoints()) {
-                    minDistance = Math.min(minDistance, calculateSpatialDistance(pointA, pointB));
+            for (Cluster cluster : clusters) {
+                if (cluster.getSize() > this.max_size) {
+                    throw new IllegalStateException(
+                        "Spatial clustering failed to respect MAX_CLUSTER_SIZE; resulting size: " + cluster.getSize());
                 }
             }
-            return minDistance;
-        }
 
-        private double calculateSpatialDistance(Point pointA, Point pointB) {
-            return Math.hypot(
-                pointA.getNode().get_latitude() - pointB.getNode().get_latitude(),
-                pointA.getNode().get_longitude() - pointB.getNode().get_longitude()
-            );
+            return clusters;
         }
 
 //        private static final class DisjointSet {
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Measures how the ordering evaluation of the clustering heuristic scales with
+ * the size of its worker pool. Every query is solved once per pool size, from
+ * one thread up to the number of available processors, and the throughput in
+ * evaluated orderings per second is reported next to the speedup over a single
+ * thread, along with the number of distinct legs the orderings were built from.
+ */
+final class ScalingBenchmark {
+
+    private ScalingBenchmark() {
+        // Utility class
+    }
+
+    /**
+     * Runs the benchmark over {@code queries}, leaving the pool at its
+     * original size afterwards. The solvers' progress lines are silenced while
+     * it runs, so the console does not take part in the measurement.
+     *
+     * @param queries      queries to solve for every pool size
+     * @param legObjective objective used when routing single legs
+     */
+    static void run(Collection<Query> queries, LegObjective legObjective) {
+        int originalParallelism = PrefixOrderingWalk.getParallelism();
+        boolean originalQuiet = Rider.isQuiet();
+        Rider.setQuiet(true);
+        try {
+            // Warm-up pass so the single-thread measurement does not pay for class loading and JIT compilation
+            solveAll(queries, legObjective);
+
+            double baseline = Double.NaN;
+            for (int threads : poolSizes(Runtime.getRuntime().availableProcessors())) {
+                PrefixOrderingWalk.setParallelism(threads);
+                long start = System.nanoTime();
+                Totals totals = solveAll(queries, legObjective);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double throughput = totals.orderings / seconds;
+                if (Double.isNaN(baseline)) {
+                    baseline = throughput;
+                }
+                // Without orderings on one thread there is nothing to compare against
+                String speedup = baseline > 0 ? String.format("%.2f", throughput / baseline) : "n/a";
+                System.out.println(String.format("Scaling benchmark: %d threads, %d orderings over %d distinct legs in %.3f s, "
+                        + "%.1f orderings/s, speedup %s",
+                        threads, totals.orderings, totals.legs, seconds, throughput, speedup));
+            }
+        } finally {
+            PrefixOrderingWalk.setParallelism(originalParallelism);
+            Rider.setQuiet(originalQuiet);
+        }
+    }
+
+    /**
+     * @return 1, 2, 4, ... up to and including {@code maxThreads}
+     */
+    static List<Integer> poolSizes(int maxThreads) {
+        List<Integer> sizes = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            sizes.add(threads);
+        }
+        sizes.add(maxThreads);
+        return sizes;
+    }
+
+    private static Totals solveAll(Collection<Query> queries, LegObjective legObjective) {
+        Totals totals = new Totals();
+        for (Query query : queries) {
+            Rider rider = new Rider(query, VRPLoadingUnloadingMain.MAX_CLUSTER_SIZE, legObjective);
+            totals.orderings += rider.getEvaluatedOrderings();
+            totals.legs += rider.getRoutedLegs();
+        }
+        return totals;
+    }
+
+    /**
+     * Orderings evaluated and distinct legs routed over one pass of the queries.
+     */
+    private static final class Totals {
+        private long orderings;
+        private long legs;
+    }
+}
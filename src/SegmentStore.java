@@ -0,0 +1,69 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Route segments of one query, keyed by origin node, destination node and
+ * departure time. The orderings evaluated for a query share most of their
+ * consecutive point pairs, so each distinct leg is searched once and every
+ * later {@link Ordering} containing it reads the stored {@link Path}. Safe for
+ * concurrent use; two threads asking for the same missing leg may both route
+ * it, and the first result stored wins.
+ */
+class SegmentStore {
+
+    private final LegObjective objective;
+    private final Map<Key, Path> segments = new ConcurrentHashMap<>();
+
+    SegmentStore(LegObjective objective) {
+        this.objective = objective;
+    }
+
+    /**
+     * @return the segment from {@code src} to {@code dest} departing at
+     *         {@code departureTime}
+     * @throws IllegalStateException if {@code dest} cannot be reached
+     */
+    Path segment(int src, int dest, double departureTime) {
+        Key key = new Key(src, dest, departureTime);
+        Path segment = this.segments.get(key);
+        if (segment != null) {
+            return segment;
+        }
+
+        segment = Ordering.computeShortestPath(src, dest, departureTime, this.objective);
+        Path existing = this.segments.putIfAbsent(key, segment);
+        return existing != null ? existing : segment;
+    }
+
+    int size() {
+        return this.segments.size();
+    }
+
+    private static final class Key {
+        private final int src;
+        private final int dest;
+        private final double departureTime;
+
+        Key(int src, int dest, double departureTime) {
+            this.src = src;
+            this.dest = dest;
+            this.departureTime = departureTime;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return this.src == key.src && this.dest == key.dest
+                    && Double.compare(this.departureTime, key.departureTime) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * this.src + this.dest;
+            return 31 * hash + Double.hashCode(this.departureTime);
+        }
+    }
+}
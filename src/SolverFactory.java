@@ -11,27 +11,67 @@ class SolverFactory {
     }
 
     /**
-     * Build the solver requested by the user for the provided query.
+     * Build the solver requested by the user for the provided query, routing
+     * legs by distance.
      *
      * @param solverType solver selection parsed from the CLI
      * @param query      query to route
      * @return solver implementation wrapped in the {@link Solver} functional interface
      */
     static Solver buildSolver(SolverType solverType, Query query) {
+        return buildSolver(solverType, query, LegObjective.SHORTEST);
+    }
+
+    /**
+     * Build the solver requested by the user for the provided query.
+     *
+     * @param solverType   solver selection parsed from the CLI
+     * @param query        query to route
+     * @param legObjective objective used by the solver when routing single legs
+     * @return solver implementation wrapped in the {@link Solver} functional interface
+     */
+    static Solver buildSolver(SolverType solverType, Query query, LegObjective legObjective) {
         switch (solverType) {
             case EXACT:
-                return () -> new LinkedList<RoutePlan>(new ExactAlgorithmSolver(query).solve());
+                return () -> {
+                    ExactAlgorithmSolver solver = new ExactAlgorithmSolver(query);
+                    solver.setLegObjective(legObjective);
+                    return new LinkedList<RoutePlan>(solver.solve());
+                };
             case FOODMATCH:
-                return () -> new LinkedList<RoutePlan>(new FoodMatchSolver(query).solve());
+                return () -> {
+                    FoodMatchSolver solver = new FoodMatchSolver(query);
+                    solver.setLegObjective(legObjective);
+                    return new LinkedList<RoutePlan>(solver.solve());
+                };
             case LIFO_STACK:
-                return () -> new LinkedList<RoutePlan>(new LifoStackSolver(query).solve());
+                return () -> {
+                    LifoStackSolver solver = new LifoStackSolver(query);
+                    solver.setLegObjective(legObjective);
+                    return new LinkedList<RoutePlan>(solver.solve());
+                };
             case INSERTION:
-                return () -> new LinkedList<RoutePlan>(new InsertionHeuristicSolver(query).solve());
+                return () -> {
+                    InsertionHeuristicSolver solver = new InsertionHeuristicSolver(query);
+                    solver.setLegObjective(legObjective);
+                    return new LinkedList<RoutePlan>(solver.solve());
+                };
             case BAZELMANS:
-                return () -> new LinkedList<RoutePlan>(new BazelmansBaselineSolver(query).solve());
+                return () -> {
+                    BazelmansBaselineSolver solver = new BazelmansBaselineSolver(query);
+                    solver.setLegObjective(legObjective);
+                    return new LinkedList<RoutePlan>(solver.solve());
+                };
+            case CLUSTER_DP:
+                return () -> new LinkedList<RoutePlan>(
+                        new Rider(query, VRPLoadingUnloadingMain.MAX_CLUSTER_SIZE, legObjective, true).getFinalOrders());
+            case CLUSTER_SUBSETS:
+                return () -> new LinkedList<RoutePlan>(
+                        new Rider(query, VRPLoadingUnloadingMain.MAX_SUBSET_CLUSTER_SIZE, legObjective).getFinalOrders());
             case DEFAULT_CLUSTERING:
             default:
-                return () -> new LinkedList<RoutePlan>(new Rider(query, VRPLoadingUnloadingMain.MAX_CLUSTER_SIZE).getFinalOrders());
+                return () -> new LinkedList<RoutePlan>(
+                        new Rider(query, VRPLoadingUnloadingMain.MAX_CLUSTER_SIZE, legObjective).getFinalOrders());
         }
     }
 
@@ -57,6 +97,10 @@ class SolverFactory {
                 return "Running greedy insertion VRP-LU heuristic as requested.";
             case BAZELMANS:
                 return "Running Bazelmans et al. pickup-delivery-loading baseline as requested.";
+            case CLUSTER_DP:
+                return "Running clustering-based heuristic with label dynamic programming over clusters as requested.";
+            case CLUSTER_SUBSETS:
+                return "Running clustering-based heuristic with large clusters solved over point subsets as requested.";
             default:
                 return "Running default clustering-based heuristic solver.";
         }
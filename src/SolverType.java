@@ -7,6 +7,8 @@ enum SolverType {
     LIFO_STACK("--lifostack", "OutputLifo_"),
     INSERTION("--insertion", "OutputInsertion_"),
     BAZELMANS("--bazelmans", "OutputBazelmans_"),
+    CLUSTER_DP("--cluster-dp", "OutputClusterDP_"),
+    CLUSTER_SUBSETS("--cluster-subsets", "OutputClusterSubsets_"),
     DEFAULT_CLUSTERING("--cluster", "Output_");
 
     private final String flag;
@@ -0,0 +1,222 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Static 2-d tree over (latitude, longitude) coordinates. Entries are
+ * identified by an integer id (a node id for the graph-wide index) and stored
+ * in flat arrays laid out as an implicit balanced tree: the median of every
+ * range splits it on latitude at even depths and on longitude at odd depths.
+ * Distances use the same planar metric as {@link Node#euclidean_distance(Node)}.
+ */
+class SpatialIndex {
+
+    private final int[] ids;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    /**
+     * Build the index over the given coordinates. The arrays are copied and
+     * must have the same length.
+     */
+    SpatialIndex(int[] ids, double[] latitudes, double[] longitudes) {
+        if (ids.length != latitudes.length || ids.length != longitudes.length) {
+            throw new IllegalArgumentException("Coordinate arrays must have the same length");
+        }
+        this.ids = ids.clone();
+        this.latitudes = latitudes.clone();
+        this.longitudes = longitudes.clone();
+        build(0, this.ids.length, 0);
+    }
+
+    static SpatialIndex fromNodes(Collection<Node> nodes) {
+        int[] ids = new int[nodes.size()];
+        double[] latitudes = new double[nodes.size()];
+        double[] longitudes = new double[nodes.size()];
+        int i = 0;
+        for (Node node : nodes) {
+            ids[i] = node.getNodeID();
+            latitudes[i] = node.get_latitude();
+            longitudes[i] = node.get_longitude();
+            i++;
+        }
+        return new SpatialIndex(ids, latitudes, longitudes);
+    }
+
+    int size() {
+        return this.ids.length;
+    }
+
+    /**
+     * @return id of the entry closest to the coordinate, or -1 if the index is empty
+     */
+    int nearest(double latitude, double longitude) {
+        List<Integer> nearest = kNearest(latitude, longitude, 1);
+        return nearest.isEmpty() ? -1 : nearest.get(0);
+    }
+
+    /**
+     * @return ids of the {@code k} entries closest to the coordinate, closest first
+     */
+    List<Integer> kNearest(double latitude, double longitude, int k) {
+        if (k <= 0 || this.ids.length == 0) {
+            return Collections.emptyList();
+        }
+
+        // max-heap on squared distance holding the best k candidates found so far
+        PriorityQueue<double[]> best = new PriorityQueue<>(k, (a, b) -> Double.compare(b[1], a[1]));
+        kNearest(0, this.ids.length, 0, latitude, longitude, k, best);
+
+        List<Integer> result = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            result.add(this.ids[(int) best.poll()[0]]);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * @return ids of all entries inside the closed bounding box
+     */
+    List<Integer> range(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        List<Integer> indices = new ArrayList<>();
+        range(0, this.ids.length, 0, minLatitude, minLongitude, maxLatitude, maxLongitude, indices);
+
+        List<Integer> result = new ArrayList<>(indices.size());
+        for (int index : indices) {
+            result.add(this.ids[index]);
+        }
+        return result;
+    }
+
+    /**
+     * @return ids of all entries within {@code radius} of the coordinate
+     */
+    List<Integer> withinRadius(double latitude, double longitude, double radius) {
+        List<Integer> indices = new ArrayList<>();
+        range(0, this.ids.length, 0, latitude - radius, longitude - radius, latitude + radius, longitude + radius,
+                indices);
+
+        List<Integer> result = new ArrayList<>();
+        for (int index : indices) {
+            if (squaredDistance(index, latitude, longitude) <= radius * radius) {
+                result.add(this.ids[index]);
+            }
+        }
+        return result;
+    }
+
+    private void build(int low, int high, int depth) {
+        if (high - low <= 1) {
+            return;
+        }
+        int median = (low + high) >>> 1;
+        select(low, high - 1, median, depth % 2 == 0);
+        build(low, median, depth + 1);
+        build(median + 1, high, depth + 1);
+    }
+
+    /**
+     * Quickselect placing the k-th smallest entry (by the split coordinate) at
+     * position k, with smaller entries before and larger entries after it.
+     */
+    private void select(int left, int right, int k, boolean byLatitude) {
+        while (right > left) {
+            double pivot = coordinate((left + right) >>> 1, byLatitude);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coordinate(i, byLatitude) < pivot) {
+                    i++;
+                }
+                while (coordinate(j, byLatitude) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void kNearest(int low, int high, int depth, double latitude, double longitude, int k,
+            PriorityQueue<double[]> best) {
+        if (low >= high) {
+            return;
+        }
+        int median = (low + high) >>> 1;
+        double distance = squaredDistance(median, latitude, longitude);
+        if (best.size() < k) {
+            best.add(new double[] {median, distance});
+        } else if (distance < best.peek()[1]) {
+            best.poll();
+            best.add(new double[] {median, distance});
+        }
+
+        boolean byLatitude = depth % 2 == 0;
+        double delta = (byLatitude ? latitude : longitude) - coordinate(median, byLatitude);
+        int nearLow = delta < 0 ? low : median + 1;
+        int nearHigh = delta < 0 ? median : high;
+        int farLow = delta < 0 ? median + 1 : low;
+        int farHigh = delta < 0 ? high : median;
+
+        kNearest(nearLow, nearHigh, depth + 1, latitude, longitude, k, best);
+        if (best.size() < k || delta * delta < best.peek()[1]) {
+            kNearest(farLow, farHigh, depth + 1, latitude, longitude, k, best);
+        }
+    }
+
+    private void range(int low, int high, int depth, double minLatitude, double minLongitude, double maxLatitude,
+            double maxLongitude, List<Integer> indices) {
+        if (low >= high) {
+            return;
+        }
+        int median = (low + high) >>> 1;
+        double latitude = this.latitudes[median];
+        double longitude = this.longitudes[median];
+        if (latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude
+                && longitude <= maxLongitude) {
+            indices.add(median);
+        }
+
+        boolean byLatitude = depth % 2 == 0;
+        double split = coordinate(median, byLatitude);
+        if ((byLatitude ? minLatitude : minLongitude) <= split) {
+            range(low, median, depth + 1, minLatitude, minLongitude, maxLatitude, maxLongitude, indices);
+        }
+        if ((byLatitude ? maxLatitude : maxLongitude) >= split) {
+            range(median + 1, high, depth + 1, minLatitude, minLongitude, maxLatitude, maxLongitude, indices);
+        }
+    }
+
+    private double coordinate(int index, boolean byLatitude) {
+        return byLatitude ? this.latitudes[index] : this.longitudes[index];
+    }
+
+    private double squaredDistance(int index, double latitude, double longitude) {
+        double dLat = this.latitudes[index] - latitude;
+        double dLon = this.longitudes[index] - longitude;
+        return dLat * dLat + dLon * dLon;
+    }
+
+    private void swap(int i, int j) {
+        int id = this.ids[i];
+        this.ids[i] = this.ids[j];
+        this.ids[j] = id;
+        double latitude = this.latitudes[i];
+        this.latitudes[i] = this.latitudes[j];
+        this.latitudes[j] = latitude;
+        double longitude = this.longitudes[i];
+        this.longitudes[i] = this.longitudes[j];
+        this.longitudes[j] = longitude;
+    }
+}
@@ -0,0 +1,265 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Single-linkage clustering of points by their (latitude, longitude)
+ * coordinates, with a cap on the size of every cluster. Repeatedly merging
+ * the two closest clusters that fit under the cap accepts the same pairs as
+ * scanning all point pairs in increasing distance and merging whenever the
+ * two clusters fit: a pair rejected once stays rejected, because clusters
+ * only grow. The pairs are therefore generated lazily, closest first, from
+ * one nearest-neighbour stream per point. A point in a cluster of size
+ * {@code s} can only be paired with clusters of at most {@code maxSize - s}
+ * points, so there is one {@link SpatialIndex} per such bound, holding the
+ * points whose cluster was within it when the index was built. Streams skip
+ * points that have outgrown the bound since, and an index is rebuilt once
+ * half of its points have; a stream moves to a smaller bound whenever its own
+ * cluster grows, and stops once the cluster is full.
+ */
+final class SpatialLinkage {
+
+    private final List<Point> points;
+    private final int maxSize;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int[] parent;
+    private final int[] size;
+    private final SpatialIndex[] indices;
+    private final int[] outgrown;
+
+    private SpatialLinkage(List<Point> points, int maxSize) {
+        int n = points.size();
+        this.points = points;
+        this.maxSize = maxSize;
+        this.latitudes = new double[n];
+        this.longitudes = new double[n];
+        this.parent = new int[n];
+        this.size = new int[n];
+        this.indices = new SpatialIndex[Math.max(1, maxSize)];
+        this.outgrown = new int[this.indices.length];
+        for (int i = 0; i < n; i++) {
+            this.latitudes[i] = points.get(i).getNode().get_latitude();
+            this.longitudes[i] = points.get(i).getNode().get_longitude();
+            this.parent[i] = i;
+            this.size[i] = 1;
+        }
+    }
+
+    /**
+     * @param points  points to cluster
+     * @param maxSize largest number of points in a cluster
+     * @return the clusters ordered by their first point in {@code points},
+     *         each listing its points in the order of {@code points}
+     */
+    static List<List<Point>> cluster(List<Point> points, int maxSize) {
+        return new SpatialLinkage(points, maxSize).run();
+    }
+
+    private List<List<Point>> run() {
+        int n = this.points.size();
+        if (this.maxSize > 1) {
+            for (int bound = 1; bound < this.maxSize; bound++) {
+                indexPoints(bound);
+            }
+            PriorityQueue<Neighbours> pairs = new PriorityQueue<>(Math.max(1, n));
+            for (int i = 0; i < n; i++) {
+                Neighbours neighbours = new Neighbours(i);
+                if (neighbours.advance()) {
+                    pairs.add(neighbours);
+                }
+            }
+
+            while (!pairs.isEmpty()) {
+                Neighbours closest = pairs.poll();
+                merge(closest.point, closest.candidate);
+                if (closest.advance()) {
+                    pairs.add(closest);
+                }
+            }
+        }
+
+        List<List<Point>> clusters = new ArrayList<>();
+        int[] clusterOfRoot = new int[n];
+        for (int i = 0; i < n; i++) {
+            int root = find(i);
+            if (root == i) {
+                clusterOfRoot[i] = clusters.size();
+                clusters.add(new ArrayList<>(this.size[i]));
+            }
+            clusters.get(clusterOfRoot[root]).add(this.points.get(i));
+        }
+        return clusters;
+    }
+
+    private void merge(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b || this.size[a] + this.size[b] > this.maxSize) {
+            return;
+        }
+        int sizeA = this.size[a];
+        int sizeB = this.size[b];
+        // Root at the smaller index so clusters keep the order of their first point
+        int root = Math.min(a, b);
+        this.parent[Math.max(a, b)] = root;
+        this.size[root] = sizeA + sizeB;
+
+        for (int bound = Math.min(sizeA, sizeB); bound < Math.min(sizeA + sizeB, this.maxSize); bound++) {
+            if (bound >= sizeA) {
+                this.outgrown[bound] += sizeA;
+            }
+            if (bound >= sizeB) {
+                this.outgrown[bound] += sizeB;
+            }
+            if (2 * this.outgrown[bound] >= this.indices[bound].size()) {
+                indexPoints(bound);
+            }
+        }
+    }
+
+    private int clusterSize(int point) {
+        return this.size[find(point)];
+    }
+
+    /**
+     * Rebuilds the index of the points whose cluster has at most {@code bound}
+     * points.
+     */
+    private void indexPoints(int bound) {
+        int count = 0;
+        int[] ids = new int[this.points.size()];
+        for (int i = 0; i < ids.length; i++) {
+            if (clusterSize(i) <= bound) {
+                ids[count++] = i;
+            }
+        }
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = this.latitudes[ids[i]];
+            longitudes[i] = this.longitudes[ids[i]];
+        }
+        this.indices[bound] = new SpatialIndex(Arrays.copyOf(ids, count), latitudes, longitudes);
+        this.outgrown[bound] = 0;
+    }
+
+    private int find(int x) {
+        while (this.parent[x] != x) {
+            this.parent[x] = this.parent[this.parent[x]];
+            x = this.parent[x];
+        }
+        return x;
+    }
+
+    private double squaredDistance(int a, int b) {
+        double dLat = this.latitudes[a] - this.latitudes[b];
+        double dLon = this.longitudes[a] - this.longitudes[b];
+        return dLat * dLat + dLon * dLon;
+    }
+
+    /**
+     * Other points by increasing distance from one point, ties by index,
+     * fetched from the index in doubling batches. Only the part of a batch
+     * strictly closer than its farthest entry is handed out before the next
+     * batch, since entries tied with the farthest one may have been left out.
+     * When the index matching the point's cluster size differs from the one
+     * of the last batch, because the cluster grew or the index was rebuilt,
+     * the stream starts over on it after its current candidate.
+     */
+    private final class Neighbours implements Comparable<Neighbours> {
+        private final int point;
+        private SpatialIndex source;
+        private int[] batch = new int[0];
+        private int trusted;
+        private int cursor;
+        private int candidate = -1;
+        private double distance;
+
+        Neighbours(int point) {
+            this.point = point;
+        }
+
+        /**
+         * Moves to the next closest point whose cluster could still be merged
+         * with the point's own.
+         *
+         * @return false when every such point has been handed out or the
+         *         point's cluster is full
+         */
+        boolean advance() {
+            while (true) {
+                int bound = maxSize - clusterSize(this.point);
+                if (bound < 1) {
+                    return false;
+                }
+                SpatialIndex index = indices[bound];
+                if (this.source == index) {
+                    while (this.cursor < this.trusted) {
+                        int next = this.batch[this.cursor++];
+                        if (follows(next) && clusterSize(next) <= bound && find(next) != find(this.point)) {
+                            this.candidate = next;
+                            this.distance = squaredDistance(this.point, next);
+                            return true;
+                        }
+                    }
+                    if (this.batch.length == index.size()) {
+                        return false;
+                    }
+                }
+                fetch(index);
+            }
+        }
+
+        private boolean follows(int next) {
+            if (this.candidate < 0) {
+                return true;
+            }
+            int byDistance = Double.compare(squaredDistance(this.point, next), this.distance);
+            return byDistance > 0 || byDistance == 0 && next > this.candidate;
+        }
+
+        private void fetch(SpatialIndex index) {
+            int k = 2 * this.batch.length;
+            if (this.source != index) {
+                this.source = index;
+                this.cursor = 0;
+                this.batch = new int[0];
+                k = 2;
+            }
+            k = Math.min(index.size(), Math.max(2, k));
+            List<Integer> nearest = index.kNearest(latitudes[this.point], longitudes[this.point], k);
+            Integer[] sorted = nearest.toArray(new Integer[0]);
+            Arrays.sort(sorted, (a, b) -> {
+                int byDistance = Double.compare(squaredDistance(this.point, a), squaredDistance(this.point, b));
+                return byDistance != 0 ? byDistance : Integer.compare(a, b);
+            });
+            this.batch = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                this.batch[i] = sorted[i];
+            }
+
+            this.trusted = this.batch.length;
+            if (this.batch.length < index.size()) {
+                double farthest = squaredDistance(this.point, this.batch[this.batch.length - 1]);
+                while (this.trusted > 0 && squaredDistance(this.point, this.batch[this.trusted - 1]) >= farthest) {
+                    this.trusted--;
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Neighbours other) {
+            int byDistance = Double.compare(this.distance, other.distance);
+            if (byDistance != 0) {
+                return byDistance;
+            }
+            int byFirst = Integer.compare(Math.min(this.point, this.candidate), Math.min(other.point, other.candidate));
+            if (byFirst != 0) {
+                return byFirst;
+            }
+            return Integer.compare(Math.max(this.point, this.candidate), Math.max(other.point, other.candidate));
+        }
+    }
+}
@@ -29,30 +29,75 @@ public class VRPLoadingUnloadingMain {
          * Cluster size used by the default heuristic (kept public to avoid cascading refactors).
          */
         public static final int MAX_CLUSTER_SIZE = 3;
+        /**
+         * Cluster size used by the heuristic when large clusters are solved by the subset
+         * dynamic program of {@link Cluster}.
+         */
+        public static final int MAX_SUBSET_CLUSTER_SIZE = 10;
         public static final int SPLIT_THR = 2;
 
         private static final String QUERY_FILE_PREFIX = "Query_";
+        private static final String CORRIDOR_FLAG = "--corridor=";
+        private static final String HUB_LABELS_FLAG = "--hub-labels=";
+        private static final String OVERLAY_FLAG = "--overlay";
+        private static final String OVERLAY_TRAFFIC_FLAG = "--overlay-traffic=";
+        private static final String THREADS_FLAG = "--threads=";
+        private static final String SCALING_BENCHMARK_FLAG = "--scaling-benchmark";
+        private static final String CLUSTER_BUDGET_FLAG = "--cluster-budget=";
 
         private static final Deque<Query> queries = new ArrayDeque<>();
 
         private static String currentDirectory = System.getProperty("user.dir");
         private static SolverType solverType = SolverType.DEFAULT_CLUSTERING;
+        private static LegObjective legObjective = LegObjective.SHORTEST;
+        private static String hubLabelFile;
+        private static boolean useOverlay;
+        private static double trafficSnapshotTime = Double.NaN;
+        private static boolean scalingBenchmark;
 
         public static void main(String[] args) throws IOException {
                 parseArguments(args);
                 System.out.println("Starting time-dependent graph generation from directory: " + currentDirectory);
                 GenerateTDGraph.driver(currentDirectory);
+                if (hubLabelFile != null) {
+                        Graph.setHubLabels(HubLabels.loadOrBuild(new File(hubLabelFile)));
+                }
+                if (useOverlay || !Double.isNaN(trafficSnapshotTime)) {
+                        OverlayGraph overlay = OverlayGraph.partition();
+                        if (useOverlay) {
+                                overlay.customize();
+                        }
+                        if (!Double.isNaN(trafficSnapshotTime)) {
+                                overlay.customizeTravelTimes(trafficSnapshotTime);
+                        }
+                        Graph.setOverlay(overlay);
+                }
                 System.out.println("Graph generation complete. Beginning query ingestion.");
 
                 populateQueryQueue();
+                if (scalingBenchmark) {
+                        ScalingBenchmark.run(queries, legObjective);
+                        return;
+                }
                 processQueries();
         }
 
         /**
          * Parse command-line arguments to determine working directory and solver selection.
          * The first argument, if present, is treated as the working directory. Subsequent
-         * arguments are interpreted as solver flags; unknown flags fall back to the default
-         * clustering heuristic.
+         * arguments are interpreted as leg objective flags ({@code --shortest-legs},
+         * {@code --fastest-legs}), a corridor restriction for leg searches
+         * ({@code --corridor=<detour>}, e.g. {@code --corridor=1.5}), a hub label file
+         * answering distance legs ({@code --hub-labels=<file>}, built and written on first
+         * use), a multilevel overlay answering distance legs ({@code --overlay}), fastest legs
+         * routed on an overlay snapshot of the travel times at a minute of the day
+         * ({@code --overlay-traffic=<minute>}), the number
+         * of threads evaluating cluster orderings ({@code --threads=<n>}), a thread scaling
+         * benchmark of the clustering heuristic run instead of writing output
+         * ({@code --scaling-benchmark}), a per-query latency budget in milliseconds from which
+         * the clustering heuristic picks its cluster size and split threshold
+         * ({@code --cluster-budget=<ms>}) or solver flags; unknown flags fall back to the
+         * default clustering heuristic.
          */
         private static void parseArguments(String[] args) {
                 if (args.length > 0 && new File(args[0]).exists()) {
@@ -60,6 +105,49 @@ public class VRPLoadingUnloadingMain {
                 }
 
                 for (int i = 1; i < args.length; i++) {
+                        LegObjective objective = LegObjective.fromArg(args[i]);
+                        if (objective != null) {
+                                legObjective = objective;
+                                System.out.println("Routing legs with objective " + legObjective + ".");
+                                continue;
+                        }
+                        if (args[i].startsWith(CORRIDOR_FLAG)) {
+                                LegSearch.setCorridorDetour(Double.parseDouble(args[i].substring(CORRIDOR_FLAG.length())));
+                                System.out.println("Restricting leg searches to a corridor with detour factor "
+                                                + LegSearch.getCorridorDetour() + ".");
+                                continue;
+                        }
+                        if (args[i].startsWith(HUB_LABELS_FLAG)) {
+                                hubLabelFile = args[i].substring(HUB_LABELS_FLAG.length());
+                                System.out.println("Answering distance legs from hub labels in " + hubLabelFile + ".");
+                                continue;
+                        }
+                        if (args[i].equals(OVERLAY_FLAG)) {
+                                useOverlay = true;
+                                System.out.println("Answering distance legs from a multilevel overlay.");
+                                continue;
+                        }
+                        if (args[i].startsWith(OVERLAY_TRAFFIC_FLAG)) {
+                                trafficSnapshotTime = Double.parseDouble(args[i].substring(OVERLAY_TRAFFIC_FLAG.length()));
+                                System.out.println("Routing fastest legs on an overlay snapshot of the travel times at minute "
+                                                + trafficSnapshotTime + ".");
+                                continue;
+                        }
+                        if (args[i].startsWith(THREADS_FLAG)) {
+                                PrefixOrderingWalk.setParallelism(Integer.parseInt(args[i].substring(THREADS_FLAG.length())));
+                                System.out.println("Evaluating cluster orderings with " + PrefixOrderingWalk.getParallelism() + " threads.");
+                                continue;
+                        }
+                        if (args[i].startsWith(CLUSTER_BUDGET_FLAG)) {
+                                Rider.setLatencyBudget(Double.parseDouble(args[i].substring(CLUSTER_BUDGET_FLAG.length())));
+                                System.out.println("Sizing clusters adaptively for a budget of " + Rider.getLatencyBudget() + " ms per query.");
+                                continue;
+                        }
+                        if (args[i].equals(SCALING_BENCHMARK_FLAG)) {
+                                scalingBenchmark = true;
+                                System.out.println("Running the thread scaling benchmark of the clustering heuristic.");
+                                continue;
+                        }
                         solverType = SolverType.fromArg(args[i]);
                         System.out.println(SolverFactory.describeSolver(solverType));
                 }
@@ -122,7 +210,7 @@ public class VRPLoadingUnloadingMain {
                         while (!queries.isEmpty()) {
                                 long start = System.currentTimeMillis();
                                 Query query = queries.poll();
-                                Solver solver = SolverFactory.buildSolver(solverType, Objects.requireNonNull(query));
+                                Solver solver = SolverFactory.buildSolver(solverType, Objects.requireNonNull(query), legObjective);
                                 List<RoutePlan> outputOrder = new LinkedList<>(solver.solve());
                                 long end = System.currentTimeMillis();
 